@@ -1,10 +0,0 @@
-/**
- * Created by marek on 3/11/16.
- */
-public class Main {
-    public static RSA rsa = new RSA();
-
-    public static void main(String[] args) {
-        MainWindow mainWindow = new MainWindow();
-    }
-}
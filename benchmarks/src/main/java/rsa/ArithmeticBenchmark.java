@@ -0,0 +1,54 @@
+package rsa;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The number theory helpers of RSA on operands of the size used during key generation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ArithmeticBenchmark {
+    @Param({"256", "1024", "2048"})
+    private int keySize;
+
+    private BigInteger e;
+    private BigInteger phi;
+    private BigInteger a;
+    private BigInteger p;
+
+    @Setup
+    public void setUp() throws Exception {
+        KeyPair keyPair = RSA.generateKeyPair(keySize);
+        e = keyPair.getE();
+        p = keyPair.getP();
+        phi = keyPair.getN().subtract(keyPair.getP().add(keyPair.getQ())).add(BigInteger.ONE);
+        a = keyPair.getQ().mod(p);
+    }
+
+    @Benchmark
+    public BigInteger modInverse() {
+        return RSA.modInverse(e, phi);
+    }
+
+    @Benchmark
+    public BigInteger bigIntegerModInverse() {
+        return e.modInverse(phi);
+    }
+
+    @Benchmark
+    public BigInteger jacobi() {
+        return RSA.jacobi(a, p);
+    }
+
+    @Benchmark
+    public BigInteger gcd() {
+        return RSA.gcd(e, phi);
+    }
+}
@@ -0,0 +1,68 @@
+package rsa;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversions of the largest chunk a key allows (31 bytes for the default 256 bit key) to a number
+ * and back, without the exponentiation.
+ * Run with -prof gc to see the bytes allocated per chunk.
+ *
+ * The copying variant repeats what the chunk loop did before ChunkCodec: a fresh chunk array,
+ * a BigInteger, a toByteArray copy and an aligned array for every chunk.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ChunkCodecBenchmark {
+    private static final int CHUNKS = 1024;
+
+    @Param({"256", "1024", "2048"})
+    private int keySize;
+
+    private int chunkSize;
+    private int encChunkSize;
+    private byte[] plainText;
+    private byte[] output;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        chunkSize = RSA.getMaxChunkSize(keySize);
+        encChunkSize = RSA.getEncChunkSize(keySize);
+        plainText = new byte[CHUNKS * chunkSize];
+        output = new byte[CHUNKS * encChunkSize];
+        new Random(0).nextBytes(plainText);
+    }
+
+    @Benchmark
+    public byte[] copying() {
+        int i = next = (next + 1) & (CHUNKS - 1);
+        byte[] chunk = new byte[chunkSize];
+        System.arraycopy(plainText, i * chunkSize, chunk, 0, chunkSize);
+
+        byte[] encryptedChunk = new BigInteger(1, chunk).toByteArray();
+        byte[] alignedEncryptedChunk = new byte[encChunkSize];
+        System.arraycopy(encryptedChunk, 0, alignedEncryptedChunk,
+                alignedEncryptedChunk.length - encryptedChunk.length, encryptedChunk.length);
+        System.arraycopy(alignedEncryptedChunk, 0, output, i * encChunkSize, encChunkSize);
+
+        return output;
+    }
+
+    @Benchmark
+    public byte[] codec() {
+        int i = next = (next + 1) & (CHUNKS - 1);
+        ChunkCodec codec = ChunkCodec.forThread();
+        codec.writeChunk(codec.readChunk(plainText, i * chunkSize, chunkSize),
+                output, i * encChunkSize, encChunkSize);
+
+        return output;
+    }
+}
@@ -0,0 +1,29 @@
+package rsa;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Output of the file benchmarks, it counts the bytes and drops them, so only the cipher is measured.
+ */
+class DiscardingChannel implements WritableByteChannel {
+    long written;
+
+    @Override
+    public int write(ByteBuffer src) {
+        int length = src.remaining();
+        src.position(src.limit());
+        written += length;
+
+        return length;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+    }
+}
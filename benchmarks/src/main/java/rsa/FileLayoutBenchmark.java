@@ -0,0 +1,66 @@
+package rsa;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.channels.Channels;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to encrypt and decrypt a whole file with the default 256 bit key in the layouts which do not
+ * take a chunk size: the packed blocks (the default of the RSA facade), the hybrid mode and, for
+ * comparison, the byte-aligned chunks of the largest size. The output is discarded.
+ *
+ * A 100 MiB file is measured only on request, e.g. -p fileSize=104857600.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FileLayoutBenchmark {
+    @Param({"packed", "hybrid", "chunks"})
+    private String layout;
+
+    @Param({"1024", "1048576"})
+    private int fileSize;
+
+    @Param({"1"})
+    private int parallelism;
+
+    private RSA rsa;
+    private byte[] plainText;
+    private byte[] cypherText;
+
+    @Setup
+    public void setUp() throws Exception {
+        rsa = new RSA();
+        rsa.createKeyPair();
+        rsa.setChunkSize(rsa.getMaxChunkSize());
+        rsa.setPacked(layout.equals("packed"));
+        rsa.setHybrid(layout.equals("hybrid"));
+        rsa.setParallelism(parallelism);
+
+        plainText = new byte[fileSize];
+        new Random(0).nextBytes(plainText);
+        cypherText = rsa.encryptFile(plainText).toByteArray();
+    }
+
+    @Benchmark
+    public long encrypt() throws Exception {
+        DiscardingChannel output = new DiscardingChannel();
+        rsa.encrypt(Channels.newChannel(new ByteArrayInputStream(plainText)), output);
+
+        return output.written;
+    }
+
+    @Benchmark
+    public long decrypt() throws Exception {
+        DiscardingChannel output = new DiscardingChannel();
+        rsa.decrypt(Channels.newChannel(new ByteArrayInputStream(cypherText)), output);
+
+        return output.written;
+    }
+}
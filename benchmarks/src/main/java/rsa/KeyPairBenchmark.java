@@ -0,0 +1,32 @@
+package rsa;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of createKeyPair, with and without the key pair pool.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class KeyPairBenchmark {
+    @Param({"256", "1024", "2048"})
+    private int keySize;
+
+    private RSA rsa;
+
+    @Setup
+    public void setUp() {
+        rsa = new RSA();
+    }
+
+    @Benchmark
+    public RSA createKeyPair() throws Exception {
+        rsa.createKeyPair(keySize);
+        return rsa;
+    }
+}
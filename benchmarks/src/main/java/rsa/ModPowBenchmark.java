@@ -0,0 +1,79 @@
+package rsa;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RSA.modPow and the Montgomery engine against BigInteger.modPow, with the public
+ * and the private exponent of a generated key.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ModPowBenchmark {
+    private static final int BASES = 1024;
+
+    @Param({"256", "512", "1024", "2048"})
+    private int keySize;
+
+    @Param({"public", "private"})
+    private String exponentType;
+
+    private BigInteger n;
+    private BigInteger exponent;
+    private MontgomeryContext context;
+    private BigInteger[] bases;
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        if (keySize == 512) {
+            //RSA takes no 512 bit keys, the largest modulus of the limb arithmetic is built
+            //from two 256 bit primes instead
+            BigInteger e = BigInteger.valueOf(65537);
+            BigInteger phi;
+            do {
+                BigInteger[] primes = new PrimeGenerator(1).generatePrimes(2, keySize / 2);
+                n = primes[0].multiply(primes[1]);
+                phi = n.subtract(primes[0].add(primes[1])).add(BigInteger.ONE);
+            } while (!phi.gcd(e).equals(BigInteger.ONE));
+            exponent = exponentType.equals("public") ? e : e.modInverse(phi);
+        } else {
+            KeyPair keyPair = RSA.generateKeyPair(keySize);
+            n = keyPair.getN();
+            exponent = exponentType.equals("public") ? keyPair.getE() : keyPair.getD();
+        }
+        context = new MontgomeryContext(n, exponent);
+
+        Random rnd = new Random(0);
+        bases = new BigInteger[BASES];
+        for (int i = 0; i < BASES; i++)
+            bases[i] = new BigInteger(keySize - 1, rnd);
+    }
+
+    private BigInteger nextBase() {
+        next = (next + 1) & (BASES - 1);
+        return bases[next];
+    }
+
+    @Benchmark
+    public BigInteger rsaModPow() {
+        return RSA.modPow(nextBase(), exponent, n);
+    }
+
+    @Benchmark
+    public BigInteger montgomery() {
+        return context.modPow(nextBase());
+    }
+
+    @Benchmark
+    public BigInteger bigIntegerModPow() {
+        return nextBase().modPow(exponent, n);
+    }
+}
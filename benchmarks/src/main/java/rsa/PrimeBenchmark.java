@@ -0,0 +1,45 @@
+package rsa;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prime generation: the Solovay-Strassen search of the original paper (RSA.getPrime)
+ * against the sieving and parallel Miller-Rabin PrimeGenerator.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PrimeBenchmark {
+    @Param({"128", "512", "1024"})
+    private int bitLength;
+
+    private PrimeGenerator sequential;
+    private PrimeGenerator parallel;
+
+    @Setup
+    public void setUp() {
+        sequential = new PrimeGenerator(1);
+        parallel = new PrimeGenerator(Runtime.getRuntime().availableProcessors());
+    }
+
+    @Benchmark
+    public BigInteger getPrime() {
+        return RSA.getPrime(bitLength);
+    }
+
+    @Benchmark
+    public BigInteger generatorSequential() throws Exception {
+        return sequential.generatePrime(bitLength);
+    }
+
+    @Benchmark
+    public BigInteger generatorParallel() throws Exception {
+        return parallel.generatePrime(bitLength);
+    }
+}
@@ -0,0 +1,11 @@
+package exceptions;
+
+/**
+ * Thrown when an encryption or decryption is cancelled through its progress callback.
+ */
+public class CancelledException extends RSAException {
+
+    public CancelledException() {
+        super("Cancelled.");
+    }
+}
@@ -0,0 +1,12 @@
+package exceptions;
+
+/**
+ * Thrown when the encryption service rejects a request because its queue is full, the request
+ * may be repeated later.
+ */
+public class ServiceBusyException extends RSAException {
+
+    public ServiceBusyException(String eMessage) {
+        super(eMessage);
+    }
+}
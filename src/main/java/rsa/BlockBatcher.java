@@ -0,0 +1,167 @@
+package rsa;
+
+import exceptions.RSAException;
+import exceptions.ServiceBusyException;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+
+/**
+ * Merges the blocks of concurrent requests using the same key into shared batches computed
+ * on a fixed pool.
+ *
+ * Every key and operation has a queue of blocks. A request adds all its blocks at once and waits
+ * for them, the pool threads take batches of up to BATCH_SIZE blocks from a queue no matter which
+ * request they came from. A queue is worked on by at most as many threads as the pool has, so
+ * a large request spreads over all the cores while the small requests of one key share batches.
+ * The blocks queued at once are limited, a request which does not get room for its blocks in time
+ * is rejected as busy, which pushes the load back to the clients. A queue lives only while it has
+ * requests, the last one leaving removes it, so the keys seen over time do not pile up.
+ */
+class BlockBatcher {
+    //blocks taken by a pool thread at once
+    private static final int BATCH_SIZE = 64;
+
+    private final ExecutorService pool;
+    private final int threads;
+    private final int maxQueuedBlocks;
+    private final int queueTimeoutMillis;
+    //fair, so a large request is not overtaken by the small ones forever
+    private final Semaphore queuedBlocks;
+    private final ConcurrentHashMap<String, BlockQueue> queues = new ConcurrentHashMap<>();
+
+    BlockBatcher(int threads, int maxQueuedBlocks, int queueTimeoutMillis) {
+        this.threads = threads;
+        this.maxQueuedBlocks = maxQueuedBlocks;
+        this.queueTimeoutMillis = queueTimeoutMillis;
+        queuedBlocks = new Semaphore(maxQueuedBlocks, true);
+        pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "block-batcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    BigInteger[] apply(String queueKey, UnaryOperator<BigInteger> function, BigInteger[] blocks)
+            throws RSAException, InterruptedException {
+        //the function of a queue is the same for all its blocks, queueKey names the key and the operation
+        if (blocks.length > maxQueuedBlocks)
+            throw new RSAException("Request of " + blocks.length + " blocks does not fit the queue of "
+                    + maxQueuedBlocks + " blocks.");
+        if (!queuedBlocks.tryAcquire(blocks.length, queueTimeoutMillis, TimeUnit.MILLISECONDS))
+            throw new ServiceBusyException("Service is busy, try again later.");
+
+        //the requests of a queue are counted under the lock of its map entry
+        BlockQueue queue = queues.compute(queueKey, (key, current) -> {
+            BlockQueue joined = current == null ? new BlockQueue() : current;
+            joined.requests++;
+            return joined;
+        });
+
+        try {
+            Request request = new Request(function, blocks);
+            for (int i = 0; i < blocks.length; i++)
+                queue.blocks.add(new Block(request, i));
+
+            //a thread for every batch added, as far as the pool goes
+            for (int i = 0; i < blocks.length && queue.tryStartDrainer(); i += BATCH_SIZE)
+                pool.execute(() -> drain(queue));
+
+            request.done.await();
+            if (request.failed)
+                throw new RSAException("Wrong key or corrupted cypher text.");
+
+            return request.results;
+        } finally {
+            //a drainer still holding the removed queue finds it empty and ends
+            queues.computeIfPresent(queueKey, (key, current) -> --current.requests == 0 ? null : current);
+            queuedBlocks.release(blocks.length);
+        }
+    }
+
+    void shutdown() {
+        pool.shutdownNow();
+    }
+
+    private void drain(BlockQueue queue) {
+        List<Block> batch = new ArrayList<>(BATCH_SIZE);
+        while (true) {
+            for (Block block; batch.size() < BATCH_SIZE && (block = queue.blocks.poll()) != null; )
+                batch.add(block);
+
+            if (batch.isEmpty()) {
+                queue.drainers.decrementAndGet();
+                //blocks added after the last poll may have found all the drainers busy
+                if (queue.blocks.isEmpty() || !queue.tryStartDrainer())
+                    return;
+                continue;
+            }
+
+            for (Block block : batch)
+                block.request.compute(block.index);
+            batch.clear();
+        }
+    }
+
+    private class BlockQueue {
+        private final ConcurrentLinkedQueue<Block> blocks = new ConcurrentLinkedQueue<>();
+        //pool threads working on the queue
+        private final AtomicInteger drainers = new AtomicInteger();
+        //requests waiting for their blocks, changed only by the map
+        private int requests;
+
+        boolean tryStartDrainer() {
+            for (int count = drainers.get(); count < threads; count = drainers.get())
+                if (drainers.compareAndSet(count, count + 1))
+                    return true;
+
+            return false;
+        }
+    }
+
+    private static class Block {
+        private final Request request;
+        private final int index;
+
+        Block(Request request, int index) {
+            this.request = request;
+            this.index = index;
+        }
+    }
+
+    private static class Request {
+        private final UnaryOperator<BigInteger> function;
+        private final BigInteger[] blocks;
+        private final BigInteger[] results;
+        private final CountDownLatch done;
+        private volatile boolean failed;
+
+        Request(UnaryOperator<BigInteger> function, BigInteger[] blocks) {
+            this.function = function;
+            this.blocks = blocks;
+            results = new BigInteger[blocks.length];
+            done = new CountDownLatch(blocks.length);
+        }
+
+        void compute(int i) {
+            try {
+                results[i] = function.apply(blocks[i]);
+            } catch (RuntimeException ex) {
+                //e.g. a cypher text block larger than the modulus
+                failed = true;
+            } finally {
+                done.countDown();
+            }
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package rsa;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+
+/**
+ * Bounded cache of the encrypted and decrypted blocks, keyed by the key fingerprint and the input block.
+ *
+ * The textbook exponentiation is deterministic, so a repeated block (padding, repeated records)
+ * gives the same result and the exponentiation can be skipped. The entries are kept in parallel
+ * arrays with an open addressing index of their 64-bit hashes (linear probing, deletion by the backward
+ * shift), evicted by CLOCK: the hand clears the referenced bit of the entries it passes and evicts
+ * the first entry which was not referenced since. The entries take at most maxBytes (an estimate of
+ * the heap the blocks take), the arrays grow up to it. The blocks 0 and 1, e.g. the all-zero chunks,
+ * are their own results for any exponent and are never stored. The entries are split by their hash
+ * into segments with a lock and a share of maxBytes each, so the parallel chunk tasks mostly take
+ * different locks.
+ */
+class BlockCache {
+    //estimated heap size of a BigInteger and the header of its magnitude array
+    private static final int BIG_INTEGER_SIZE = 56;
+    //the hash, the references, the referenced bit and two index slots of an entry
+    private static final int ENTRY_SIZE = 40;
+    private static final int INITIAL_CAPACITY = 64;
+    //a power of two, fewer when a segment would get less than MIN_SEGMENT_BYTES
+    private static final int MAX_SEGMENTS = 16;
+    private static final long MIN_SEGMENT_BYTES = 64 * 1024;
+
+    private final long maxBytes;
+    private final Segment[] segments;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder trivialBlocks = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    BlockCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+
+        int count = 1;
+        while (count < MAX_SEGMENTS && maxBytes / (2L * count) >= MIN_SEGMENT_BYTES)
+            count *= 2;
+        segments = new Segment[count];
+        for (int i = 0; i < count; i++)
+            segments[i] = new Segment(maxBytes / count);
+    }
+
+    UnaryOperator<BigInteger> wrap(String fingerprint, UnaryOperator<BigInteger> function) {
+        long ownerHash = ownerHash(fingerprint);
+        return block -> {
+            //0^k = 0 and 1^k = 1, the exponents are positive
+            if (block.signum() == 0 || block.equals(BigInteger.ONE)) {
+                trivialBlocks.increment();
+                return block;
+            }
+
+            long hash = hash(ownerHash, block);
+            Segment segment = segmentOf(hash);
+            BigInteger result = segment.get(fingerprint, hash, block);
+            if (result != null) {
+                hits.increment();
+                return result;
+            }
+
+            //the exponentiation runs outside the lock, two threads missing the same block at once
+            //both compute it and the first one stays
+            misses.increment();
+            result = function.apply(block);
+            segment.put(fingerprint, hash, block, result);
+
+            return result;
+        };
+    }
+
+    private class Segment {
+        private final long maxBytes;
+        private long bytes;
+        private int size;
+
+        //the entries, an owner is the fingerprint of the key
+        private long[] hashes = new long[INITIAL_CAPACITY];
+        private String[] owners = new String[INITIAL_CAPACITY];
+        private BigInteger[] blocks = new BigInteger[INITIAL_CAPACITY];
+        private BigInteger[] results = new BigInteger[INITIAL_CAPACITY];
+        private boolean[] referenced = new boolean[INITIAL_CAPACITY];
+        private int hand;
+
+        //entry + 1 per slot, 0 is an empty slot; at most half of the slots are used
+        private int[] index = new int[2 * INITIAL_CAPACITY];
+
+        Segment(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized BigInteger get(String owner, long hash, BigInteger block) {
+            int entry = find(owner, hash, block);
+            if (entry < 0)
+                return null;
+
+            referenced[entry] = true;
+            return results[entry];
+        }
+
+        synchronized void put(String owner, long hash, BigInteger block, BigInteger result) {
+            long entryBytes = ENTRY_SIZE + sizeOf(block) + sizeOf(result);
+            if (entryBytes > maxBytes || find(owner, hash, block) >= 0)
+                return;
+
+            while (bytes + entryBytes > maxBytes)
+                evict();
+
+            //a free entry is the last one, evicted entries are replaced by the last entry
+            if (size == hashes.length)
+                grow();
+
+            int entry = size++;
+            hashes[entry] = hash;
+            owners[entry] = owner;
+            blocks[entry] = block;
+            results[entry] = result;
+            //a new entry survives the first pass of the hand
+            referenced[entry] = true;
+            insert(entry);
+            bytes += entryBytes;
+        }
+
+        private int find(String owner, long hash, BigInteger block) {
+            int mask = index.length - 1;
+            for (int slot = (int) hash & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+                int entry = index[slot] - 1;
+                if (hashes[entry] == hash && owners[entry].equals(owner) && blocks[entry].equals(block))
+                    return entry;
+            }
+
+            return -1;
+        }
+
+        private void insert(int entry) {
+            int mask = index.length - 1;
+            int slot = (int) hashes[entry] & mask;
+            while (index[slot] != 0)
+                slot = (slot + 1) & mask;
+
+            index[slot] = entry + 1;
+        }
+
+        private int slotOf(int entry) {
+            int mask = index.length - 1;
+            int slot = (int) hashes[entry] & mask;
+            while (index[slot] != entry + 1)
+                slot = (slot + 1) & mask;
+
+            return slot;
+        }
+
+        private void remove(int slot) {
+            //the entries after the slot which would not be found across the gap are moved into it
+            int mask = index.length - 1;
+            int gap = slot;
+            for (int next = (gap + 1) & mask; index[next] != 0; next = (next + 1) & mask) {
+                int home = (int) hashes[index[next] - 1] & mask;
+                //the entry stays when its home lies cyclically in (gap, next]
+                boolean stays = gap <= next ? gap < home && home <= next : gap < home || home <= next;
+                if (!stays) {
+                    index[gap] = index[next];
+                    gap = next;
+                }
+            }
+
+            index[gap] = 0;
+        }
+
+        private void evict() {
+            //the hand clears the referenced bits until it finds an entry without one, the loop ends
+            //after one round at most
+            if (hand >= size)
+                hand = 0;
+            while (referenced[hand]) {
+                referenced[hand] = false;
+                hand = hand + 1 < size ? hand + 1 : 0;
+            }
+
+            int victim = hand;
+            remove(slotOf(victim));
+            bytes -= ENTRY_SIZE + sizeOf(blocks[victim]) + sizeOf(results[victim]);
+            evictions.increment();
+
+            //the last entry takes the place of the victim, so the entries stay dense
+            int last = --size;
+            if (victim != last) {
+                index[slotOf(last)] = victim + 1;
+                hashes[victim] = hashes[last];
+                owners[victim] = owners[last];
+                blocks[victim] = blocks[last];
+                results[victim] = results[last];
+                referenced[victim] = referenced[last];
+            }
+            owners[last] = null;
+            blocks[last] = null;
+            results[last] = null;
+        }
+
+        private void grow() {
+            int capacity = 2 * hashes.length;
+            hashes = Arrays.copyOf(hashes, capacity);
+            owners = Arrays.copyOf(owners, capacity);
+            blocks = Arrays.copyOf(blocks, capacity);
+            results = Arrays.copyOf(results, capacity);
+            referenced = Arrays.copyOf(referenced, capacity);
+
+            index = new int[2 * capacity];
+            for (int entry = 0; entry < size; entry++)
+                insert(entry);
+        }
+
+        synchronized boolean contains(String owner, long hash, BigInteger block) {
+            //unlike get, the referenced bit is left alone
+            return find(owner, hash, block) >= 0;
+        }
+
+        synchronized long getBytes() {
+            return bytes;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+    }
+
+    static long ownerHash(String fingerprint) {
+        return fingerprint.hashCode() * 0x9E3779B97F4A7C15L;
+    }
+
+    static long hash(long ownerHash, BigInteger block) {
+        //the low 64 bits and the hash of the whole block, mixed by the finalizer of MurmurHash3
+        long hash = ownerHash ^ block.longValue() ^ ((long) block.hashCode() << 32);
+        hash = (hash ^ (hash >>> 33)) * 0xFF51AFD7ED558CCDL;
+        hash = (hash ^ (hash >>> 33)) * 0xC4CEB9FE1A85EC53L;
+
+        return hash ^ (hash >>> 33);
+    }
+
+    private static long sizeOf(BigInteger x) {
+        return BIG_INTEGER_SIZE + 4L * ((x.bitLength() + 31) / 32);
+    }
+
+    boolean contains(String fingerprint, BigInteger block) {
+        long hash = hash(ownerHash(fingerprint), block);
+        return segmentOf(hash).contains(fingerprint, hash, block);
+    }
+
+    private Segment segmentOf(long hash) {
+        //the high bits pick the segment, the low ones the slot within it
+        return segments[(int) (hash >>> 32) & (segments.length - 1)];
+    }
+
+    int getSegmentCount() {
+        return segments.length;
+    }
+
+    long getMaxBytes() {
+        return maxBytes;
+    }
+
+    long getBytes() {
+        long bytes = 0;
+        for (Segment segment : segments)
+            bytes += segment.getBytes();
+
+        return bytes;
+    }
+
+    int size() {
+        int size = 0;
+        for (Segment segment : segments)
+            size += segment.size();
+
+        return size;
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getMisses() {
+        return misses.sum();
+    }
+
+    long getTrivialBlocks() {
+        return trivialBlocks.sum();
+    }
+
+    long getEvictions() {
+        return evictions.sum();
+    }
+
+    double getHitRate() {
+        //the trivial blocks count as hits, they skip the exponentiation as well
+        long hits = getHits() + getTrivialBlocks();
+        long lookups = hits + getMisses();
+
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+}
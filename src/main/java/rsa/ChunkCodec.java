@@ -0,0 +1,88 @@
+package rsa;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Converts the chunks of plain text and cypher text to the numbers processed by RSA and back.
+ *
+ * The chunks are read in place and written aligned straight into the destination array.
+ * An instance keeps a scratch buffer for the last chunk and must not be shared between threads,
+ * use forThread to get the codec of the current thread.
+ */
+class ChunkCodec {
+    //ends the plain text in the last chunk, only zeros follow it
+    private static final byte PADDING_MARKER = (byte) 0x80;
+    private static final ThreadLocal<ChunkCodec> CODECS = ThreadLocal.withInitial(ChunkCodec::new);
+
+    private byte[] scratch = new byte[0];
+
+    static ChunkCodec forThread() {
+        return CODECS.get();
+    }
+
+    BigInteger readChunk(byte[] src, int offset, int length) {
+        return new BigInteger(1, src, offset, length);
+    }
+
+    BigInteger readChunk(ByteBuffer src, int offset, int length) {
+        //a mapped buffer cannot back a BigInteger, the chunk is copied to the scratch buffer
+        byte[] chunk = scratch(length);
+        src.get(offset, chunk, 0, length);
+
+        return new BigInteger(1, chunk, 0, length);
+    }
+
+    BigInteger readLastChunk(byte[] src, int offset, int remaining, int chunkSize) {
+        //the remaining bytes are padded with a marker byte and zeros, there are less than chunkSize
+        //of them, so the padding always fits
+        byte[] lastChunk = scratch(chunkSize);
+        System.arraycopy(src, offset, lastChunk, 0, remaining);
+        lastChunk[remaining] = PADDING_MARKER;
+        Arrays.fill(lastChunk, remaining + 1, chunkSize, (byte) 0);
+
+        return new BigInteger(1, lastChunk, 0, chunkSize);
+    }
+
+    void writeChunk(BigInteger value, byte[] dest, int offset, int length) {
+        //right-align the chunk in its slot, the sign byte of BigInteger.toByteArray is dropped
+        //and a shorter chunk is left-padded with zeros
+        byte[] chunk = value.toByteArray();
+        int from = Math.max(0, chunk.length - length);
+        int count = chunk.length - from;
+        Arrays.fill(dest, offset, offset + length - count, (byte) 0);
+        System.arraycopy(chunk, from, dest, offset + length - count, count);
+    }
+
+    void writeChunk(BigInteger value, ByteBuffer dest, int offset, int length) {
+        byte[] chunk = value.toByteArray();
+        int from = Math.max(0, chunk.length - length);
+        int count = chunk.length - from;
+        for (int i = offset; i < offset + length - count; i++)
+            dest.put(i, (byte) 0);
+        dest.put(offset + length - count, chunk, from, count);
+    }
+
+    int writeLastChunk(BigInteger value, byte[] dest, int offset, int chunkSize) {
+        //returns the number of bytes carried by the last chunk, -1 if the chunk is malformed
+        byte[] lastChunk = scratch(chunkSize);
+        writeChunk(value, lastChunk, 0, chunkSize);
+
+        int remaining = chunkSize - 1;
+        while (remaining > 0 && lastChunk[remaining] == 0)
+            remaining--;
+        if (lastChunk[remaining] != PADDING_MARKER)
+            return -1;
+
+        System.arraycopy(lastChunk, 0, dest, offset, remaining);
+        return remaining;
+    }
+
+    private byte[] scratch(int length) {
+        if (scratch.length < length)
+            scratch = new byte[length];
+
+        return scratch;
+    }
+}
@@ -0,0 +1,83 @@
+package rsa;
+
+import exceptions.RSAException;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Leading header of the streamed cypher text format.
+ *
+ * The header is followed by the encrypted full chunks and a single last chunk carrying
+ * the remaining (possibly zero) bytes of the plain text, a 0x80 marker byte and zeros.
+ * The chunk sizes depend on the key, the header records them.
+ */
+public class CipherHeader {
+    //the legacy format never starts with these bytes, its first byte is always zero
+    private static final byte[] MAGIC = {'R', 'S', 'A', 'S'};
+    //version 1 ended the last chunk with the count of its bytes, which limited chunks to 255 bytes
+    private static final int VERSION = 2;
+    //the session key is the only RSA chunk, the data is encrypted by AES-GCM, see HybridCipher
+    public static final int FLAG_HYBRID = 1;
+    //the plain text was deflated before it was split into chunks, see Compression
+    public static final int FLAG_COMPRESSED = 2;
+    //the chunks are groups of bit-packed blocks of the largest size the key allows, see PackedCodec;
+    //the chunk sizes are the bytes of a group, which equal the bits of a block
+    public static final int FLAG_PACKED = 4;
+    //magic, version, flags, chunk size and encrypted chunk size
+    public static final int SIZE = MAGIC.length + 2 + 2 * Integer.BYTES;
+
+    private final int flags;
+    private final int chunkSize;
+    private final int encChunkSize;
+
+    public CipherHeader(int flags, int chunkSize, int encChunkSize) {
+        this.flags = flags;
+        this.chunkSize = chunkSize;
+        this.encChunkSize = encChunkSize;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getEncChunkSize() {
+        return encChunkSize;
+    }
+
+    public byte[] toByteArray() {
+        return ByteBuffer.allocate(SIZE)
+                .put(MAGIC)
+                .put((byte) VERSION)
+                .put((byte) flags)
+                .putInt(chunkSize)
+                .putInt(encChunkSize)
+                .array();
+    }
+
+    public static boolean hasMagic(byte[] data, int length) {
+        return length >= MAGIC.length && Arrays.equals(data, 0, MAGIC.length, MAGIC, 0, MAGIC.length);
+    }
+
+    public static CipherHeader parse(byte[] data, int length) throws RSAException {
+        if (!hasMagic(data, length) || length < SIZE)
+            throw new RSAException("Cypher text header is missing.");
+
+        ByteBuffer buffer = ByteBuffer.wrap(data, MAGIC.length, SIZE - MAGIC.length);
+        int version = buffer.get();
+        if (version != VERSION)
+            throw new RSAException("Unsupported cypher text version " + version + ".");
+
+        int flags = buffer.get() & 0xFF;
+        int chunkSize = buffer.getInt();
+        int encChunkSize = buffer.getInt();
+        if (chunkSize < 1 || encChunkSize <= chunkSize)
+            throw new RSAException("Wrong chunk sizes in the cypher text header.");
+
+        return new CipherHeader(flags, chunkSize, encChunkSize);
+    }
+}
@@ -0,0 +1,62 @@
+package rsa;
+
+import exceptions.RSAException;
+
+/**
+ * Immutable per-call options of RSACipher: the plain text chunk size, the hybrid mode,
+ * the number of threads processing the chunks, the compression of the plain text
+ * and the bit-packed blocks.
+ */
+public final class CipherOptions {
+    private final int chunkSize;
+    //RSA encrypts only a session key, the data is encrypted by AES-GCM
+    private final boolean hybrid;
+    //1 means sequential processing
+    private final int parallelism;
+    //the plain text is deflated first when a sample of it compresses
+    private final boolean compressed;
+    //the blocks are bit-packed at the largest size the key allows, the chunk size is not used
+    private final boolean packed;
+
+    public CipherOptions(int chunkSize, boolean hybrid, int parallelism) throws RSAException {
+        this(chunkSize, hybrid, parallelism, false);
+    }
+
+    public CipherOptions(int chunkSize, boolean hybrid, int parallelism, boolean compressed) throws RSAException {
+        this(chunkSize, hybrid, parallelism, compressed, false);
+    }
+
+    public CipherOptions(int chunkSize, boolean hybrid, int parallelism, boolean compressed, boolean packed)
+            throws RSAException {
+        if (chunkSize < 1)
+            throw new RSAException("Chunk size has to be at least 1 byte.");
+        else if (parallelism < 1)
+            throw new RSAException("Parallelism must be at least 1.");
+
+        this.chunkSize = chunkSize;
+        this.hybrid = hybrid;
+        this.parallelism = parallelism;
+        this.compressed = compressed;
+        this.packed = packed;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public boolean isHybrid() {
+        return hybrid;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    public boolean isPacked() {
+        return packed;
+    }
+}
@@ -0,0 +1,21 @@
+package rsa;
+
+/**
+ * Progress callback and cancellation hook of RSACipher.
+ *
+ * update is called on the thread running the encryption or decryption after every batch of
+ * chunks (every record in the hybrid mode). isCancelled is polled before every chunk, possibly
+ * from several threads, the call then ends with a CancelledException.
+ */
+@FunctionalInterface
+public interface CipherProgress {
+    CipherProgress NONE = (bytesRead, chunks) -> {
+    };
+
+    //bytes read from the input and chunks (records) processed so far
+    void update(long bytesRead, long chunks);
+
+    default boolean isCancelled() {
+        return false;
+    }
+}
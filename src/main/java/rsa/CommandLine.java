@@ -0,0 +1,329 @@
+package rsa;
+
+import exceptions.RSAException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Headless batch mode: encrypts or decrypts files and whole directory trees.
+ *
+ * The files are processed concurrently on a work-stealing pool of a bounded size. Before a file
+ * is handed to the pool, the memory its buffers need is taken from the memory cap, so the
+ * files in flight never hold more than the cap (a single file larger than the cap runs alone).
+ * The outputs are named like the ones of the GUI, the input path followed by "Encrypted" or
+ * "Decrypted".
+ */
+public class CommandLine {
+    static final int EXIT_OK = 0;
+    static final int EXIT_FAILURE = 1;
+    static final int EXIT_USAGE = 2;
+    private static final String ENCRYPTED_SUFFIX = "Encrypted";
+    private static final String DECRYPTED_SUFFIX = "Decrypted";
+    private static final int DEFAULT_MEMORY_MIB = 256;
+    private static final int KIB = 1024;
+    private static final double MIB = 1024 * 1024;
+    private static final String USAGE =
+            "usage: rsa encrypt|decrypt -k <key file> [-o <output directory>] [-c <chunk size>] [-t <threads>]\n"
+                    + "           [-m <memory cap in MiB>] [-b <block cache in MiB>] [-a] [-z] <file or directory>...\n"
+                    + "  -k  publicKey.txt to encrypt, privateKey.txt to decrypt\n"
+                    + "  -o  directory the outputs are written to, next to the inputs by default\n"
+                    + "  -c  plain text chunk size in bytes, the blocks are packed densely by default\n"
+                    + "  -t  files processed at once, the number of processors by default\n"
+                    + "  -m  memory the files in flight may take, " + DEFAULT_MEMORY_MIB + " MiB by default\n"
+                    + "  -b  memory of the results kept for the repeated blocks of all the files, none by default\n"
+                    + "  -a  hybrid mode, the data is encrypted by AES-GCM with an RSA encrypted session key\n"
+                    + "  -z  compress the data first, skipped for the files which do not compress";
+
+    private final PrintStream out;
+    private final PrintStream err;
+    private RSACipher cipher;
+
+    private boolean encrypt;
+    private File keyFile;
+    private File outputDirectory;
+    private Integer chunkSize;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int memoryMiB = DEFAULT_MEMORY_MIB;
+    private int blockCacheMiB;
+    private boolean hybrid;
+    private boolean compressed;
+    private final List<Path> inputs = new ArrayList<>();
+
+    CommandLine(PrintStream out, PrintStream err) {
+        this.out = out;
+        this.err = err;
+    }
+
+    public static int run(String[] args) {
+        return new CommandLine(System.out, System.err).execute(args);
+    }
+
+    int execute(String[] args) {
+        try {
+            parse(args);
+        } catch (IllegalArgumentException ex) {
+            err.println(ex.getMessage());
+            err.println(USAGE);
+            return EXIT_USAGE;
+        }
+
+        RSAPublicKey publicKey = null;
+        RSAPrivateKey privateKey = null;
+        CipherOptions options;
+        List<Job> jobs;
+        try {
+            cipher = new RSACipher(RSACipher.DEFAULT_CACHE_SIZE, (long) blockCacheMiB * KIB * KIB);
+
+            int maxChunkSize;
+            if (encrypt) {
+                publicKey = KeyFiles.readPublicKey(keyFile);
+                maxChunkSize = publicKey.getMaxChunkSize();
+            } else {
+                privateKey = KeyFiles.readPrivateKey(keyFile);
+                maxChunkSize = privateKey.getMaxChunkSize();
+            }
+
+            //the files are processed concurrently, the chunks of one file sequentially;
+            //without a chunk size the blocks are packed densely
+            options = new CipherOptions(chunkSize == null ? maxChunkSize : chunkSize, hybrid, 1, compressed,
+                    chunkSize == null);
+            jobs = collectJobs();
+        } catch (RSAException ex) {
+            err.println(ex.geteMessage());
+            return EXIT_USAGE;
+        } catch (IOException ex) {
+            err.println(ex.getMessage());
+            return EXIT_USAGE;
+        }
+
+        int encChunkSize = encrypt ? publicKey.getEncChunkSize() : privateKey.getEncChunkSize();
+        long workingSetSize = RSACipher.workingSetSize(options.getChunkSize(), encChunkSize, options.isCompressed());
+        int memoryKiB = (int) Math.min(Integer.MAX_VALUE, (long) memoryMiB * KIB);
+        Semaphore memory = new Semaphore(memoryKiB);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        List<Future<Boolean>> results = new ArrayList<>();
+        long start = System.nanoTime();
+        long totalBytes = 0;
+
+        try {
+            for (Job job : jobs) {
+                int cost = (int) Math.min(memoryKiB, toKiB(job.memorySize(workingSetSize)));
+                memory.acquireUninterruptibly(cost);
+                totalBytes += job.input.toFile().length();
+
+                RSAPublicKey jobPublicKey = publicKey;
+                RSAPrivateKey jobPrivateKey = privateKey;
+                results.add(pool.submit(() -> {
+                    try {
+                        return job.run(jobPublicKey, jobPrivateKey, options);
+                    } finally {
+                        memory.release(cost);
+                    }
+                }));
+            }
+
+            int failed = 0;
+            for (Future<Boolean> result : results) {
+                try {
+                    if (!result.get())
+                        failed++;
+                } catch (ExecutionException ex) {
+                    //the job could not report it itself, e.g. on an error
+                    err.println(ex.getCause());
+                    failed++;
+                } catch (InterruptedException ex) {
+                    failed++;
+                }
+            }
+
+            double seconds = (System.nanoTime() - start) / 1e9;
+            out.printf("%d files, %d failed, %d bytes in %.2f s, %.2f MiB/s%n", jobs.size(), failed,
+                    totalBytes, seconds, totalBytes / MIB / Math.max(seconds, 1e-9));
+            if (blockCacheMiB > 0)
+                out.printf("block cache: %d hits, %d misses, %d zero blocks, %.1f%% hit rate%n",
+                        cipher.getBlockCacheHits(), cipher.getBlockCacheMisses(), cipher.getBlockCacheTrivialBlocks(),
+                        100 * cipher.getBlockCacheHitRate());
+
+            return failed == 0 ? EXIT_OK : EXIT_FAILURE;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void parse(String[] args) {
+        if (args.length == 0 || !(args[0].equals("encrypt") || args[0].equals("decrypt")))
+            throw new IllegalArgumentException("Missing the encrypt or decrypt command.");
+
+        encrypt = args[0].equals("encrypt");
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "-k":
+                    keyFile = new File(value(args, ++i, arg));
+                    break;
+                case "-o":
+                    outputDirectory = new File(value(args, ++i, arg));
+                    break;
+                case "-c":
+                    chunkSize = number(args, ++i, arg);
+                    break;
+                case "-t":
+                    threads = number(args, ++i, arg);
+                    break;
+                case "-m":
+                    memoryMiB = number(args, ++i, arg);
+                    break;
+                case "-b":
+                    blockCacheMiB = number(args, ++i, arg);
+                    break;
+                case "-a":
+                    hybrid = true;
+                    break;
+                case "-z":
+                    compressed = true;
+                    break;
+                default:
+                    if (arg.startsWith("-"))
+                        throw new IllegalArgumentException("Unknown option " + arg + ".");
+                    inputs.add(Paths.get(arg));
+            }
+        }
+
+        if (keyFile == null)
+            throw new IllegalArgumentException("Missing the key file.");
+        else if (inputs.isEmpty())
+            throw new IllegalArgumentException("Missing the files to " + args[0] + ".");
+    }
+
+    static String value(String[] args, int i, String option) {
+        if (i >= args.length)
+            throw new IllegalArgumentException("Missing the value of " + option + ".");
+
+        return args[i];
+    }
+
+    static int number(String[] args, int i, String option) {
+        try {
+            int number = Integer.parseInt(value(args, i, option));
+            if (number < 1)
+                throw new IllegalArgumentException("The value of " + option + " has to be positive.");
+
+            return number;
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Wrong value of " + option + ".");
+        }
+    }
+
+    private List<Job> collectJobs() throws IOException, RSAException {
+        //the whole list is collected first, so the outputs written next to the inputs are not picked up
+        List<Job> jobs = new ArrayList<>();
+        for (Path input : inputs) {
+            if (Files.isDirectory(input)) {
+                List<Path> files;
+                try (Stream<Path> walk = Files.walk(input)) {
+                    files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+                }
+
+                for (Path file : files) {
+                    //encryption skips the earlier outputs, decryption takes only the encrypted files
+                    if (file.getFileName().toString().endsWith(ENCRYPTED_SUFFIX) == encrypt)
+                        continue;
+
+                    jobs.add(new Job(file, output(file, input.relativize(file))));
+                }
+            } else if (Files.isRegularFile(input)) {
+                jobs.add(new Job(input, output(input, input.getFileName())));
+            } else {
+                throw new RSAException("No such file or directory " + input + ".");
+            }
+        }
+
+        return jobs;
+    }
+
+    private Path output(Path input, Path relative) {
+        String suffix = encrypt ? ENCRYPTED_SUFFIX : DECRYPTED_SUFFIX;
+        if (outputDirectory == null)
+            return Paths.get(input + suffix);
+
+        return outputDirectory.toPath().resolve(relative + suffix);
+    }
+
+    private static long toKiB(long bytes) {
+        return (bytes + KIB - 1) / KIB;
+    }
+
+    private class Job {
+        private final Path input;
+        private final Path output;
+
+        Job(Path input, Path output) {
+            this.input = input;
+            this.output = output;
+        }
+
+        long memorySize(long workingSetSize) {
+            if (encrypt)
+                return workingSetSize;
+
+            //the legacy format is decrypted in memory, the cypher text and the plain text at once
+            byte[] header = new byte[CipherHeader.SIZE];
+            try (FileChannel channel = FileChannel.open(input)) {
+                int length = RSACipher.readFully(channel, header, 0, header.length);
+                return CipherHeader.hasMagic(header, length) ? workingSetSize : workingSetSize + 3 * channel.size();
+            } catch (IOException ex) {
+                //the job fails on opening the file again and reports it
+                return workingSetSize;
+            }
+        }
+
+        boolean run(RSAPublicKey publicKey, RSAPrivateKey privateKey, CipherOptions options) {
+            long start = System.nanoTime();
+            try {
+                if (output.getParent() != null)
+                    Files.createDirectories(output.getParent());
+
+                if (encrypt)
+                    cipher.encrypt(publicKey, options, input, output, CipherProgress.NONE);
+                else
+                    cipher.decrypt(privateKey, options, input, output, CipherProgress.NONE);
+            } catch (RSAException ex) {
+                return fail(ex.geteMessage());
+            } catch (IOException ex) {
+                return fail(ex.getMessage());
+            } catch (RuntimeException ex) {
+                //e.g. a corrupt cypher text the decryption does not expect, the other jobs go on
+                return fail(ex.toString());
+            }
+
+            long bytes = input.toFile().length();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            out.printf("%s -> %s: %d bytes in %.3f s, %.2f MiB/s%n", input, output, bytes, seconds,
+                    bytes / MIB / Math.max(seconds, 1e-9));
+
+            return true;
+        }
+
+        private boolean fail(String message) {
+            //a partial output is not left behind
+            output.toFile().delete();
+            err.println(input + ": " + message);
+
+            return false;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package rsa;
+
+import java.io.ByteArrayInputStream;
+import java.io.SequenceInputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterOutputStream;
+
+/**
+ * Optional Deflate stage in front of the chunks, every chunk saved is a modular exponentiation saved.
+ *
+ * Whether the plain text compresses is decided by deflating a sample from its start, data which
+ * does not get noticeably smaller (already compressed or encrypted files) is encrypted as it is.
+ * The choice is recorded by CipherHeader.FLAG_COMPRESSED.
+ */
+class Compression {
+    //plain text bytes deflated to decide whether the compression pays off
+    static final int SAMPLE_SIZE = 64 * 1024;
+    //the deflated sample has to be at most this part of the sample
+    private static final double MAX_RATIO = 0.875;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    //the sample, the stream buffers and the state of zlib (about 256 KiB for the default level)
+    static final int WORKING_SET_SIZE = SAMPLE_SIZE + 2 * BUFFER_SIZE + 256 * 1024;
+
+    private Compression() {
+    }
+
+    static boolean compresses(byte[] sample, int length) {
+        if (length == 0)
+            return false;
+
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(sample, 0, length);
+            deflater.finish();
+
+            //the output has room only for as much as the deflated sample may take
+            byte[] output = new byte[(int) (length * MAX_RATIO)];
+            int deflated = 0;
+            while (!deflater.finished() && deflated < output.length)
+                deflated += deflater.deflate(output, deflated, output.length - deflated);
+
+            return deflater.finished();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static ReadableByteChannel prepend(byte[] sample, int sampleLength, ReadableByteChannel rest) {
+        //the sample was read from the plain text already, it goes first
+        return Channels.newChannel(new SequenceInputStream(new ByteArrayInputStream(sample, 0, sampleLength),
+                Channels.newInputStream(rest)));
+    }
+
+    static ReadableByteChannel deflating(byte[] sample, int sampleLength, ReadableByteChannel rest,
+                                         Deflater deflater) {
+        //the streams are never closed, closing them would close the channel of the caller
+        return Channels.newChannel(new DeflaterInputStream(Channels.newInputStream(prepend(sample, sampleLength, rest)),
+                deflater, BUFFER_SIZE));
+    }
+
+    static InflaterOutputStream inflating(WritableByteChannel plainText, Inflater inflater) {
+        return new InflaterOutputStream(Channels.newOutputStream(plainText), inflater, BUFFER_SIZE);
+    }
+}
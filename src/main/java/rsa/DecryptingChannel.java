@@ -0,0 +1,259 @@
+package rsa;
+
+import exceptions.RSAException;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+/**
+ * Read-only channel of the plain text of an encrypted file, decrypting only the chunks a read covers.
+ *
+ * The chunks have a fixed size, so the chunks covering a byte range of the plain text follow
+ * from the chunk sizes. The streamed format records them in the header, its last chunk is
+ * decrypted on opening to find the plain text size. The legacy format records them in the
+ * trailer, its first chunk is firstChunkSize bytes long. Recently decrypted chunks are kept
+ * in a small LRU cache for clustered reads. The packed groups take the place of the chunks, only
+ * the last group may be shorter. Neither the hybrid mode nor the compressed plain text is supported.
+ */
+public class DecryptingChannel implements SeekableByteChannel {
+    //plain text bytes returned by a single read at most, it keeps the cypher text buffer small
+    private static final int MAX_READ_SIZE = 1024 * 1024;
+
+    private final FileChannel cypherText;
+    private final UnaryOperator<BigInteger> decryption;
+    private final boolean legacy;
+    //the groups of the packed blocks, null for the chunks
+    private final PackedCodec packing;
+    //bytes of the last encrypted chunk, the last packed group may be shorter than the others
+    private final int lastEncChunkSize;
+    //offset of the first encrypted chunk in the cypher text
+    private final long chunksOffset;
+    private final int encChunkSize;
+    private final int firstChunkSize;
+    private final int chunkSize;
+    private final long chunkCount;
+    private final long size;
+    private final Map<Long, byte[]> chunks;
+    private long position;
+
+    DecryptingChannel(FileChannel cypherText, RSAPrivateKey key, UnaryOperator<BigInteger> decryption, int cacheSize)
+            throws RSAException, IOException {
+        this.cypherText = cypherText;
+        this.decryption = decryption;
+        chunks = new LinkedHashMap<Long, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+                return size() > cacheSize;
+            }
+        };
+
+        long length = cypherText.size();
+        byte[] headerBytes = new byte[CipherHeader.SIZE];
+        int headerLength = RSACipher.readAt(cypherText, headerBytes, headerBytes.length, 0);
+
+        if (CipherHeader.hasMagic(headerBytes, headerLength)) {
+            CipherHeader header = CipherHeader.parse(headerBytes, headerLength);
+            if ((header.getFlags() & CipherHeader.FLAG_HYBRID) != 0)
+                throw new RSAException("Cypher text of the hybrid mode cannot be read at random.");
+            else if ((header.getFlags() & CipherHeader.FLAG_COMPRESSED) != 0)
+                throw new RSAException("Compressed cypher text cannot be read at random.");
+            RSACipher.checkHeader(key, header);
+
+            legacy = false;
+            packing = (header.getFlags() & CipherHeader.FLAG_PACKED) != 0 ? new PackedCodec(key.getKeySize()) : null;
+            chunksOffset = CipherHeader.SIZE;
+            encChunkSize = header.getEncChunkSize();
+            chunkSize = header.getChunkSize();
+            firstChunkSize = chunkSize;
+            if (packing == null && (length - chunksOffset) % encChunkSize != 0 || length == chunksOffset)
+                throw new RSAException("Cypher text is truncated.");
+            chunkCount = (length - chunksOffset - 1) / encChunkSize + 1;
+            lastEncChunkSize = (int) (length - chunksOffset - (chunkCount - 1) * encChunkSize);
+
+            //the padded last chunk tells the size of the plain text
+            byte[] lastChunk = new byte[chunkSize];
+            int remaining = decryptLastChunk(readEncryptedChunk(chunkCount - 1), 0, lastChunk);
+            if (remaining < 0)
+                throw new RSAException("Wrong key or corrupted cypher text.");
+
+            size = (chunkCount - 1) * chunkSize + remaining;
+            chunks.put(chunkCount - 1, Arrays.copyOf(lastChunk, remaining));
+        } else {
+            //the legacy format: equal chunks after a shorter first one, the sizes in the last two bytes
+            legacy = true;
+            packing = null;
+            chunksOffset = 0;
+            encChunkSize = RSACipher.LEGACY_ENC_CHUNK_SIZE;
+            lastEncChunkSize = encChunkSize;
+            if (length < 2 || (length - 2) % encChunkSize != 0)
+                throw new RSAException("Cypher text is truncated.");
+
+            byte[] trailer = new byte[2];
+            RSACipher.readAt(cypherText, trailer, trailer.length, length - 2);
+            firstChunkSize = trailer[0];
+            chunkSize = trailer[1];
+            chunkCount = (length - 2) / encChunkSize;
+            if (chunkCount > 0 && (chunkSize < 1 || firstChunkSize < 1 || firstChunkSize > chunkSize))
+                throw new RSAException("Wrong key or corrupted cypher text.");
+
+            size = chunkCount == 0 ? 0 : firstChunkSize + (chunkCount - 1) * chunkSize;
+        }
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        int read = read(position, dst);
+        if (read > 0)
+            position += read;
+
+        return read;
+    }
+
+    public synchronized int read(long position, ByteBuffer dst) throws IOException {
+        //reads from the given position of the plain text without moving the position of the channel
+        ensureOpen();
+        if (position < 0)
+            throw new IllegalArgumentException("Negative position.");
+        else if (position >= size)
+            return dst.hasRemaining() ? -1 : 0;
+
+        int length = (int) Math.min(Math.min(dst.remaining(), MAX_READ_SIZE), size - position);
+        if (length == 0)
+            return 0;
+
+        long first = chunkAt(position);
+        long last = chunkAt(position + length - 1);
+
+        //the cypher text of the covered chunks is read at once when any of them is missing
+        byte[] encryptedChunks = null;
+        for (long i = first; i <= last && encryptedChunks == null; i++) {
+            if (!chunks.containsKey(i)) {
+                encryptedChunks = EngineMetrics.get().newBuffer((int) (last - first + 1) * encChunkSize);
+                RSACipher.readAt(cypherText, encryptedChunks, encryptedChunks.length, chunksOffset + first * encChunkSize);
+            }
+        }
+
+        for (long i = first; i <= last; i++) {
+            byte[] chunk = chunks.get(i);
+            if (chunk == null) {
+                chunk = decryptChunk(i, encryptedChunks, (int) (i - first) * encChunkSize);
+                chunks.put(i, chunk);
+            }
+
+            long chunkOffset = offsetOf(i);
+            int from = (int) Math.max(0, position - chunkOffset);
+            int to = (int) Math.min(chunk.length, position + length - chunkOffset);
+            dst.put(chunk, from, to - from);
+        }
+
+        return length;
+    }
+
+    private byte[] decryptChunk(long i, byte[] encryptedChunks, int offset) throws IOException {
+        byte[] chunk = new byte[lengthOf(i)];
+        if (!legacy && i == chunkCount - 1) {
+            //the last chunk of the streamed format is padded, it is decrypted on opening already,
+            //it only comes back here once the cache evicted it
+            byte[] lastChunk = new byte[chunkSize];
+            decryptLastChunk(encryptedChunks, offset, lastChunk);
+            System.arraycopy(lastChunk, 0, chunk, 0, chunk.length);
+        } else if (packing != null) {
+            if (!packing.decryptGroup(decryption, encryptedChunks, offset, chunk, 0))
+                throw new IOException("Wrong key or corrupted cypher text.");
+        } else {
+            //m = c^d mod n
+            ChunkCodec codec = ChunkCodec.forThread();
+            codec.writeChunk(decryption.apply(codec.readChunk(encryptedChunks, offset, encChunkSize)), chunk, 0,
+                    chunk.length);
+        }
+
+        return chunk;
+    }
+
+    private int decryptLastChunk(byte[] encryptedChunks, int offset, byte[] lastChunk) {
+        //returns the number of bytes carried by the last chunk, -1 if it is malformed
+        if (packing != null)
+            return packing.decryptLastGroup(decryption, encryptedChunks, offset, lastEncChunkSize, lastChunk, 0);
+
+        ChunkCodec codec = ChunkCodec.forThread();
+        return codec.writeLastChunk(decryption.apply(codec.readChunk(encryptedChunks, offset, encChunkSize)),
+                lastChunk, 0, chunkSize);
+    }
+
+    private byte[] readEncryptedChunk(long i) throws IOException, RSAException {
+        int length = i == chunkCount - 1 ? lastEncChunkSize : encChunkSize;
+        byte[] encryptedChunk = new byte[encChunkSize];
+        if (RSACipher.readAt(cypherText, encryptedChunk, length, chunksOffset + i * encChunkSize) != length)
+            throw new RSAException("Cypher text is truncated.");
+
+        return encryptedChunk;
+    }
+
+    private long chunkAt(long position) {
+        return position < firstChunkSize ? 0 : 1 + (position - firstChunkSize) / chunkSize;
+    }
+
+    private long offsetOf(long i) {
+        return i == 0 ? 0 : firstChunkSize + (i - 1) * chunkSize;
+    }
+
+    private int lengthOf(long i) {
+        return (int) (Math.min(offsetOf(i + 1), size) - offsetOf(i));
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0)
+            throw new IllegalArgumentException("Negative position.");
+
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return cypherText.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        cypherText.close();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (!cypherText.isOpen())
+            throw new ClosedChannelException();
+    }
+}
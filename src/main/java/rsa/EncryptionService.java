@@ -0,0 +1,318 @@
+package rsa;
+
+import exceptions.RSAException;
+import exceptions.ServiceBusyException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Encryption service on a loopback port, the keys are taken from a Keyring by their fingerprint.
+ *
+ * Every connection is served by its own thread (the project targets Java 17, so these are platform
+ * threads, the number of connections served at once is bounded). A connection sends any number
+ * of requests one after another: the operation, the fingerprint of the public key, the length
+ * and the data. The response is a status, the length and the data or the error message.
+ * Encryption returns the streamed cypher text format of RSACipher with the largest chunk the key
+ * allows or, with OP_ENCRYPT_PACKED, with the packed blocks. Decryption takes either of them,
+ * but neither the hybrid mode nor the compression.
+ *
+ * The modular exponentiations of all the requests go through a BlockBatcher, which merges the
+ * blocks of the requests using the same key into shared batches on a fixed pool of threads.
+ */
+public class EncryptionService implements Closeable {
+    static final int OP_ENCRYPT = 1;
+    static final int OP_DECRYPT = 2;
+    static final int OP_ENCRYPT_PACKED = 3;
+    static final int STATUS_OK = 0;
+    static final int STATUS_ERROR = 1;
+    static final int STATUS_BUSY = 2;
+    //keys whose precomputed exponentiations are kept
+    private static final int CACHE_SIZE = 64;
+    private static final int BACKLOG = 128;
+    private static final EngineMetrics METRICS = EngineMetrics.get();
+
+    private final Keyring keyring;
+    private final ServiceOptions options;
+    private final KeyContextCache contexts = new KeyContextCache(CACHE_SIZE);
+    private final BlockBatcher batcher;
+    private final Semaphore connections;
+    private final ExecutorService connectionThreads;
+    private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+    private ServerSocket serverSocket;
+    private Thread acceptor;
+
+    public EncryptionService(Keyring keyring, ServiceOptions options) {
+        this.keyring = keyring;
+        this.options = options;
+        batcher = new BlockBatcher(options.getThreads(), options.getMaxQueuedBlocks(),
+                options.getQueueTimeoutMillis());
+        connections = new Semaphore(options.getMaxConnections());
+        connectionThreads = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "service-connection");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public synchronized void start() throws IOException {
+        //only the local machine can connect
+        serverSocket = new ServerSocket(options.getPort(), BACKLOG, InetAddress.getLoopbackAddress());
+        acceptor = new Thread(this::accept, "service-acceptor");
+        acceptor.start();
+    }
+
+    public synchronized int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    private void accept() {
+        try {
+            while (true) {
+                //the connections over the limit wait in the backlog of the socket
+                connections.acquire();
+                Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (IOException ex) {
+                    connections.release();
+                    throw ex;
+                }
+
+                sockets.add(socket);
+                connectionThreads.execute(() -> {
+                    try {
+                        serve(socket);
+                    } finally {
+                        sockets.remove(socket);
+                        connections.release();
+                    }
+                });
+            }
+        } catch (IOException | InterruptedException ex) {
+            //the service was closed
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket connection = socket;
+             DataInputStream input = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+             DataOutputStream output = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()))) {
+            connection.setTcpNoDelay(true);
+
+            while (true) {
+                int operation;
+                try {
+                    operation = input.readUnsignedByte();
+                } catch (EOFException ex) {
+                    //the client closed the connection between two requests
+                    return;
+                }
+
+                byte[] fingerprint = new byte[KeyFingerprint.HASH_SIZE];
+                input.readFully(fingerprint);
+                int length = input.readInt();
+
+                try {
+                    byte[] result = handle(operation, KeyFingerprint.toHex(fingerprint), length, input);
+                    respond(output, STATUS_OK, result);
+                } catch (ServiceBusyException ex) {
+                    respond(output, STATUS_BUSY, ex.geteMessage().getBytes(StandardCharsets.UTF_8));
+                } catch (RequestException ex) {
+                    //the data of the request was not read, the connection cannot go on
+                    respond(output, STATUS_ERROR, ex.geteMessage().getBytes(StandardCharsets.UTF_8));
+                    return;
+                } catch (RSAException ex) {
+                    respond(output, STATUS_ERROR, ex.geteMessage().getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        } catch (IOException ex) {
+            //the client went away or the service was closed
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private byte[] handle(int operation, String fingerprint, int length, DataInputStream input)
+            throws RSAException, IOException, InterruptedException {
+        if (operation != OP_ENCRYPT && operation != OP_DECRYPT && operation != OP_ENCRYPT_PACKED)
+            throw new RequestException("Unknown operation " + operation + ".");
+        else if (length < 0)
+            throw new RequestException("Negative request length.");
+
+        //a request for a missing key is skipped, the connection goes on
+        KeyPair keyPair = keyring.get(fingerprint);
+        if (keyPair == null || operation == OP_DECRYPT && keyPair.getPrivateKey() == null) {
+            input.skipNBytes(length);
+            throw new RSAException("Keyring holds no " + (keyPair == null ? "key " : "private key ") + fingerprint + ".");
+        }
+
+        RSAPublicKey publicKey = keyPair.getPublicKey();
+        RSAPrivateKey privateKey = keyPair.getPrivateKey();
+
+        //the size of the request is checked before its data is read
+        int chunkSize = publicKey.getMaxChunkSize();
+        int encChunkSize = publicKey.getEncChunkSize();
+        //the packed blocks are as many as the chunks or fewer
+        long blockCount = operation != OP_DECRYPT ? length / chunkSize + 1 : (length - CipherHeader.SIZE) / encChunkSize;
+        if (blockCount > options.getMaxQueuedBlocks())
+            throw new RequestException("Request of " + blockCount + " blocks does not fit the queue of "
+                    + options.getMaxQueuedBlocks() + " blocks.");
+
+        byte[] data = new byte[length];
+        input.readFully(data);
+
+        long start = System.nanoTime();
+        byte[] result = operation == OP_ENCRYPT ? encrypt(publicKey, data) :
+                operation == OP_ENCRYPT_PACKED ? encryptPacked(publicKey, data) :
+                decrypt(privateKey, data);
+        if (operation != OP_DECRYPT)
+            METRICS.recordEncryption(length, System.nanoTime() - start);
+        else
+            METRICS.recordDecryption(length, System.nanoTime() - start);
+
+        return result;
+    }
+
+    private byte[] encrypt(RSAPublicKey key, byte[] plainText) throws RSAException, InterruptedException {
+        int chunkSize = key.getMaxChunkSize();
+        int encChunkSize = key.getEncChunkSize();
+        int fullChunks = plainText.length / chunkSize;
+
+        //the full chunks and the padded last chunk
+        ChunkCodec codec = ChunkCodec.forThread();
+        BigInteger[] blocks = new BigInteger[fullChunks + 1];
+        for (int i = 0; i < fullChunks; i++)
+            blocks[i] = codec.readChunk(plainText, i * chunkSize, chunkSize);
+        blocks[fullChunks] = codec.readLastChunk(plainText, fullChunks * chunkSize, plainText.length % chunkSize,
+                chunkSize);
+
+        //c = m^e mod n
+        BigInteger[] encrypted = batcher.apply("encrypt:" + key.getFingerprint(),
+                METRICS.measureEncryption(contexts.encryption(key)), blocks);
+
+        byte[] cypherText = new byte[CipherHeader.SIZE + encrypted.length * encChunkSize];
+        System.arraycopy(new CipherHeader(0, chunkSize, encChunkSize).toByteArray(), 0, cypherText, 0,
+                CipherHeader.SIZE);
+        for (int i = 0; i < encrypted.length; i++)
+            codec.writeChunk(encrypted[i], cypherText, CipherHeader.SIZE + i * encChunkSize, encChunkSize);
+
+        return cypherText;
+    }
+
+    private byte[] encryptPacked(RSAPublicKey key, byte[] plainText) throws RSAException, InterruptedException {
+        PackedCodec codec = new PackedCodec(key.getKeySize());
+
+        //c = m^e mod n
+        BigInteger[] encrypted = batcher.apply("encrypt:" + key.getFingerprint(),
+                METRICS.measureEncryption(contexts.encryption(key)),
+                codec.readPlainText(plainText, 0, plainText.length));
+
+        byte[] cypherText = new byte[CipherHeader.SIZE + codec.getEncLength(plainText.length)];
+        System.arraycopy(new CipherHeader(CipherHeader.FLAG_PACKED, codec.getGroupSize(), codec.getEncGroupSize())
+                .toByteArray(), 0, cypherText, 0, CipherHeader.SIZE);
+        codec.writeCypherText(encrypted, cypherText, CipherHeader.SIZE);
+
+        return cypherText;
+    }
+
+    private byte[] decrypt(RSAPrivateKey key, byte[] cypherText) throws RSAException, InterruptedException {
+        CipherHeader header = CipherHeader.parse(cypherText, cypherText.length);
+        if (header.getFlags() == CipherHeader.FLAG_PACKED)
+            return decryptPacked(key, header, cypherText);
+        else if (header.getFlags() != 0)
+            throw new RSAException("Service decrypts neither the hybrid mode nor the compressed plain text.");
+        RSACipher.checkHeader(key, header);
+
+        int chunkSize = header.getChunkSize();
+        int encChunkSize = header.getEncChunkSize();
+        int length = cypherText.length - CipherHeader.SIZE;
+        if (length % encChunkSize != 0 || length == 0)
+            throw new RSAException("Cypher text is truncated.");
+
+        ChunkCodec codec = ChunkCodec.forThread();
+        BigInteger[] blocks = new BigInteger[length / encChunkSize];
+        for (int i = 0; i < blocks.length; i++)
+            blocks[i] = codec.readChunk(cypherText, CipherHeader.SIZE + i * encChunkSize, encChunkSize);
+
+        //m = c^d mod n
+        BigInteger[] decrypted = batcher.apply("decrypt:" + key.getFingerprint(),
+                METRICS.measureDecryption(contexts.decryption(key)), blocks);
+
+        int fullChunks = decrypted.length - 1;
+        byte[] plainText = new byte[fullChunks * chunkSize + chunkSize];
+        for (int i = 0; i < fullChunks; i++)
+            codec.writeChunk(decrypted[i], plainText, i * chunkSize, chunkSize);
+
+        int remaining = codec.writeLastChunk(decrypted[fullChunks], plainText, fullChunks * chunkSize, chunkSize);
+        if (remaining < 0)
+            throw new RSAException("Wrong key or corrupted cypher text.");
+
+        return Arrays.copyOf(plainText, fullChunks * chunkSize + remaining);
+    }
+
+    private byte[] decryptPacked(RSAPrivateKey key, CipherHeader header, byte[] cypherText)
+            throws RSAException, InterruptedException {
+        RSACipher.checkHeader(key, header);
+
+        PackedCodec codec = new PackedCodec(key.getKeySize());
+        BigInteger[] blocks = codec.readCypherText(cypherText, CipherHeader.SIZE,
+                cypherText.length - CipherHeader.SIZE);
+        if (blocks == null)
+            throw new RSAException("Cypher text is truncated.");
+
+        //m = c^d mod n
+        BigInteger[] decrypted = batcher.apply("decrypt:" + key.getFingerprint(),
+                METRICS.measureDecryption(contexts.decryption(key)), blocks);
+
+        byte[] plainText = new byte[codec.getPlainTextCapacity(decrypted)];
+        int length = codec.writePlainText(decrypted, plainText, 0);
+        if (length < 0)
+            throw new RSAException("Wrong key or corrupted cypher text.");
+
+        return Arrays.copyOf(plainText, length);
+    }
+
+    private static void respond(DataOutputStream output, int status, byte[] data) throws IOException {
+        output.writeByte(status);
+        output.writeInt(data.length);
+        output.write(data);
+        output.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (serverSocket != null)
+            serverSocket.close();
+        if (acceptor != null)
+            acceptor.interrupt();
+
+        for (Socket socket : sockets)
+            socket.close();
+        connectionThreads.shutdownNow();
+        batcher.shutdown();
+    }
+
+    private static class RequestException extends RSAException {
+        //the request is rejected before its data is read
+        RequestException(String eMessage) {
+            super(eMessage);
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package rsa;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+
+/**
+ * Counters of the engine shared by all the ciphers: chunks and bytes processed, the latency
+ * of the exponentiation of every chunk, the prime candidates, the key generation, the key pair
+ * pools and the buffers allocated by the cipher calls.
+ *
+ * Everything is counted by LongAdders, which threads update without contention, so the metrics
+ * stay on in the chunk loops. They are read through snapshot or over JMX. Disabling them stops
+ * everything except the chunk counts, which cost a single add per chunk.
+ */
+public final class EngineMetrics implements EngineMetricsMBean {
+    public static final String OBJECT_NAME = "rsa:type=EngineMetrics";
+    private static final double MIB = 1024 * 1024;
+    private static final EngineMetrics INSTANCE = register(new EngineMetrics());
+
+    private volatile boolean enabled = true;
+    private final LongAdder encryptedBytes = new LongAdder();
+    private final LongAdder decryptedBytes = new LongAdder();
+    //time spent in the encryption and decryption calls
+    private final LongAdder encryptNanos = new LongAdder();
+    private final LongAdder decryptNanos = new LongAdder();
+    //chunks processed, counted apart from their latency
+    private final LongAdder encryptedChunks = new LongAdder();
+    private final LongAdder decryptedChunks = new LongAdder();
+    private final LatencyHistogram encryptChunkLatency = new LatencyHistogram();
+    private final LatencyHistogram decryptChunkLatency = new LatencyHistogram();
+    //candidates of the prime search, the sieved ones never reach the primality test
+    private final LongAdder primeCandidates = new LongAdder();
+    private final LongAdder primeCandidatesSieved = new LongAdder();
+    private final LongAdder primeCandidatesRejected = new LongAdder();
+    private final LatencyHistogram keyGenerationLatency = new LatencyHistogram();
+    //key pairs waiting in all the pools, a gauge kept even when disabled and not reset
+    private final LongAdder keyPairPoolDepth = new LongAdder();
+    private final LongAdder keyPairPoolHits = new LongAdder();
+    private final LongAdder keyPairPoolMisses = new LongAdder();
+    private final LongAdder keyPairPoolFailures = new LongAdder();
+    private final LongAdder allocations = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+
+    private EngineMetrics() {
+    }
+
+    public static EngineMetrics get() {
+        return INSTANCE;
+    }
+
+    private static EngineMetrics register(EngineMetrics metrics) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName(OBJECT_NAME));
+        } catch (JMException | SecurityException ex) {
+            //the metrics work without JMX, e.g. when another class loader registered them already
+        }
+
+        return metrics;
+    }
+
+    UnaryOperator<BigInteger> measureEncryption(UnaryOperator<BigInteger> encryption) {
+        return measure(encryption, encryptedChunks, encryptChunkLatency);
+    }
+
+    UnaryOperator<BigInteger> measureDecryption(UnaryOperator<BigInteger> decryption) {
+        return measure(decryption, decryptedChunks, decryptChunkLatency);
+    }
+
+    private UnaryOperator<BigInteger> measure(UnaryOperator<BigInteger> function, LongAdder chunks,
+                                              LatencyHistogram latency) {
+        return value -> {
+            chunks.increment();
+            if (!enabled)
+                return function.apply(value);
+
+            long start = System.nanoTime();
+            BigInteger result = function.apply(value);
+            latency.record(System.nanoTime() - start);
+
+            return result;
+        };
+    }
+
+    void recordEncryption(long bytes, long nanos) {
+        if (enabled) {
+            encryptedBytes.add(bytes);
+            encryptNanos.add(nanos);
+        }
+    }
+
+    void recordDecryption(long bytes, long nanos) {
+        if (enabled) {
+            decryptedBytes.add(bytes);
+            decryptNanos.add(nanos);
+        }
+    }
+
+    void recordPrimeCandidates(long candidates, long sieved, long rejected) {
+        if (enabled) {
+            primeCandidates.add(candidates);
+            primeCandidatesSieved.add(sieved);
+            primeCandidatesRejected.add(rejected);
+        }
+    }
+
+    void recordKeyGeneration(long nanos) {
+        if (enabled)
+            keyGenerationLatency.record(nanos);
+    }
+
+    void recordKeyPairPoolDepth(int change) {
+        keyPairPoolDepth.add(change);
+    }
+
+    void recordKeyPairPoolTake(boolean hit) {
+        if (enabled)
+            (hit ? keyPairPoolHits : keyPairPoolMisses).increment();
+    }
+
+    void recordKeyPairPoolFailure() {
+        if (enabled)
+            keyPairPoolFailures.increment();
+    }
+
+    void recordAllocation(long bytes) {
+        if (enabled) {
+            allocations.increment();
+            allocatedBytes.add(bytes);
+        }
+    }
+
+    byte[] newBuffer(int length) {
+        recordAllocation(length);
+        return new byte[length];
+    }
+
+    public MetricsSnapshot snapshot() {
+        return new MetricsSnapshot(encryptedChunks.sum(), decryptedChunks.sum(), encryptedBytes.sum(),
+                decryptedBytes.sum(), encryptNanos.sum(), decryptNanos.sum(), encryptChunkLatency.snapshot(),
+                decryptChunkLatency.snapshot(), primeCandidates.sum(), primeCandidatesSieved.sum(),
+                primeCandidatesRejected.sum(), keyGenerationLatency.snapshot(), keyPairPoolDepth.sum(),
+                keyPairPoolHits.sum(), keyPairPoolMisses.sum(), keyPairPoolFailures.sum(), allocations.sum(),
+                allocatedBytes.sum());
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public long getEncryptedChunks() {
+        return encryptedChunks.sum();
+    }
+
+    @Override
+    public long getDecryptedChunks() {
+        return decryptedChunks.sum();
+    }
+
+    @Override
+    public long getEncryptedBytes() {
+        return encryptedBytes.sum();
+    }
+
+    @Override
+    public long getDecryptedBytes() {
+        return decryptedBytes.sum();
+    }
+
+    @Override
+    public double getEncryptThroughput() {
+        return throughput(encryptedBytes.sum(), encryptNanos.sum());
+    }
+
+    @Override
+    public double getDecryptThroughput() {
+        return throughput(decryptedBytes.sum(), decryptNanos.sum());
+    }
+
+    @Override
+    public double getEncryptChunkLatencyMean() {
+        return encryptChunkLatency.snapshot().getMean();
+    }
+
+    @Override
+    public long getEncryptChunkLatencyP99() {
+        return encryptChunkLatency.snapshot().getPercentile(99);
+    }
+
+    @Override
+    public double getDecryptChunkLatencyMean() {
+        return decryptChunkLatency.snapshot().getMean();
+    }
+
+    @Override
+    public long getDecryptChunkLatencyP99() {
+        return decryptChunkLatency.snapshot().getPercentile(99);
+    }
+
+    @Override
+    public long getPrimeCandidates() {
+        return primeCandidates.sum();
+    }
+
+    @Override
+    public long getPrimeCandidatesSieved() {
+        return primeCandidatesSieved.sum();
+    }
+
+    @Override
+    public long getPrimeCandidatesRejected() {
+        return primeCandidatesRejected.sum();
+    }
+
+    @Override
+    public long getKeyPairsGenerated() {
+        return keyGenerationLatency.snapshot().getCount();
+    }
+
+    @Override
+    public double getKeyGenerationLatencyMean() {
+        return keyGenerationLatency.snapshot().getMean();
+    }
+
+    @Override
+    public long getKeyGenerationLatencyMax() {
+        return keyGenerationLatency.snapshot().getMax();
+    }
+
+    @Override
+    public long getKeyPairPoolDepth() {
+        return keyPairPoolDepth.sum();
+    }
+
+    @Override
+    public long getKeyPairPoolHits() {
+        return keyPairPoolHits.sum();
+    }
+
+    @Override
+    public long getKeyPairPoolMisses() {
+        return keyPairPoolMisses.sum();
+    }
+
+    @Override
+    public long getKeyPairPoolFailures() {
+        return keyPairPoolFailures.sum();
+    }
+
+    @Override
+    public long getAllocations() {
+        return allocations.sum();
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+        return allocatedBytes.sum();
+    }
+
+    @Override
+    public void reset() {
+        for (LongAdder counter : new LongAdder[]{encryptedChunks, decryptedChunks, encryptedBytes, decryptedBytes,
+                encryptNanos, decryptNanos, primeCandidates, primeCandidatesSieved, primeCandidatesRejected,
+                keyPairPoolHits, keyPairPoolMisses, keyPairPoolFailures, allocations, allocatedBytes})
+            counter.reset();
+        encryptChunkLatency.reset();
+        decryptChunkLatency.reset();
+        keyGenerationLatency.reset();
+    }
+
+    static double throughput(long bytes, long nanos) {
+        return nanos == 0 ? 0 : bytes / MIB / (nanos / 1e9);
+    }
+}
@@ -0,0 +1,58 @@
+package rsa;
+
+/**
+ * JMX view of EngineMetrics, registered as rsa:type=EngineMetrics.
+ * Latencies are in nanoseconds, throughputs in MiB per second of the time spent in the calls.
+ * The bytes are the ones the calls read, the plain text encrypted and the cypher text decrypted.
+ */
+public interface EngineMetricsMBean {
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    long getEncryptedChunks();
+
+    long getDecryptedChunks();
+
+    long getEncryptedBytes();
+
+    long getDecryptedBytes();
+
+    double getEncryptThroughput();
+
+    double getDecryptThroughput();
+
+    double getEncryptChunkLatencyMean();
+
+    long getEncryptChunkLatencyP99();
+
+    double getDecryptChunkLatencyMean();
+
+    long getDecryptChunkLatencyP99();
+
+    long getPrimeCandidates();
+
+    long getPrimeCandidatesSieved();
+
+    long getPrimeCandidatesRejected();
+
+    long getKeyPairsGenerated();
+
+    double getKeyGenerationLatencyMean();
+
+    long getKeyGenerationLatencyMax();
+
+    long getKeyPairPoolDepth();
+
+    long getKeyPairPoolHits();
+
+    long getKeyPairPoolMisses();
+
+    long getKeyPairPoolFailures();
+
+    long getAllocations();
+
+    long getAllocatedBytes();
+
+    void reset();
+}
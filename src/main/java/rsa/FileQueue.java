@@ -0,0 +1,205 @@
+package rsa;
+
+import exceptions.RSAException;
+
+import javax.swing.*;
+import java.awt.*;
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Files encrypted or decrypted one after another off the event dispatch thread.
+ *
+ * The window shows the progress of the current file (chunks done, throughput and the time left)
+ * and the files waiting for it. A cancelled or failed file leaves no output behind.
+ * All the methods are called on the event dispatch thread.
+ */
+class FileQueue {
+    private static final int PROGRESS_MAX = 1000;
+    private static final double MIB = 1024 * 1024;
+
+    private final RSACipher cipher = new RSACipher();
+    private final JFrame frame = new JFrame("RSA queue");
+    private final JLabel fileLabel = new JLabel(" ");
+    private final JProgressBar progressBar = new JProgressBar(0, PROGRESS_MAX);
+    private final JLabel statusLabel = new JLabel(" ");
+    private final DefaultListModel<FileTask> pending = new DefaultListModel<>();
+    private FileTask current;
+
+    FileQueue() {
+        JButton cancelButton = new JButton("Cancel");
+        cancelButton.addActionListener(e -> {
+            if (current != null)
+                //the task polls the flag, interrupting it would close its file channels
+                current.cancel(false);
+        });
+
+        JButton cancelAllButton = new JButton("Cancel all");
+        cancelAllButton.addActionListener(e -> {
+            pending.clear();
+            if (current != null)
+                current.cancel(false);
+        });
+
+        JPanel progressPanel = new JPanel(new GridLayout(3, 1));
+        progressPanel.add(fileLabel);
+        progressPanel.add(progressBar);
+        progressPanel.add(statusLabel);
+
+        JPanel buttonPanel = new JPanel();
+        buttonPanel.add(cancelButton);
+        buttonPanel.add(cancelAllButton);
+
+        JPanel panel = new JPanel(new BorderLayout(5, 5));
+        panel.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
+        panel.add(progressPanel, BorderLayout.NORTH);
+        panel.add(new JScrollPane(new JList<>(pending)), BorderLayout.CENTER);
+        panel.add(buttonPanel, BorderLayout.SOUTH);
+
+        frame.setContentPane(panel);
+        frame.setDefaultCloseOperation(WindowConstants.HIDE_ON_CLOSE);
+        frame.setSize(450, 300);
+    }
+
+    void addEncryption(File input, RSAPublicKey key, CipherOptions options) {
+        add(new FileTask(input, new File(input.getPath() + "Encrypted"), key, null, options));
+    }
+
+    void addDecryption(File input, RSAPrivateKey key, CipherOptions options) {
+        add(new FileTask(input, new File(input.getPath() + "Decrypted"), null, key, options));
+    }
+
+    private void add(FileTask task) {
+        pending.addElement(task);
+        frame.setVisible(true);
+        startNext();
+    }
+
+    private void startNext() {
+        if (current != null)
+            return;
+
+        if (pending.isEmpty()) {
+            fileLabel.setText("Finished");
+            return;
+        }
+
+        current = pending.remove(0);
+        fileLabel.setText(current.input.getPath());
+        progressBar.setValue(0);
+        statusLabel.setText(" ");
+        current.execute();
+    }
+
+    private static String formatTime(long seconds) {
+        return String.format("%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+
+    private class FileTask extends SwingWorker<Void, long[]> {
+        private final File input;
+        private final File output;
+        //the public key encrypts, the private key decrypts
+        private final RSAPublicKey publicKey;
+        private final RSAPrivateKey privateKey;
+        private final CipherOptions options;
+        private final long length;
+        //claimed by the background work when it starts, or by done() when cancelled before that
+        private final AtomicBoolean started = new AtomicBoolean();
+        private long start;
+
+        FileTask(File input, File output, RSAPublicKey publicKey, RSAPrivateKey privateKey, CipherOptions options) {
+            this.input = input;
+            this.output = output;
+            this.publicKey = publicKey;
+            this.privateKey = privateKey;
+            this.options = options;
+            length = input.length();
+        }
+
+        @Override
+        protected Void doInBackground() throws Exception {
+            if (!started.compareAndSet(false, true))
+                return null;
+
+            try {
+                processFile();
+            } finally {
+                //a cancelled task runs done() at once, the next file waits until this one stops writing
+                SwingUtilities.invokeLater(this::finish);
+            }
+
+            return null;
+        }
+
+        private void processFile() throws Exception {
+            start = System.nanoTime();
+            CipherProgress progress = new CipherProgress() {
+                @Override
+                public void update(long bytesRead, long chunks) {
+                    publish(new long[]{bytesRead, chunks});
+                }
+
+                @Override
+                public boolean isCancelled() {
+                    return FileTask.this.isCancelled();
+                }
+            };
+
+            try {
+                //the files are mapped to memory, the chunks are processed in place
+                if (publicKey != null)
+                    cipher.encrypt(publicKey, options, input.toPath(), output.toPath(), progress);
+                else
+                    cipher.decrypt(privateKey, options, input.toPath(), output.toPath(), progress);
+            } catch (Exception ex) {
+                output.delete();
+                throw ex;
+            }
+        }
+
+        @Override
+        protected void process(List<long[]> updates) {
+            //only the latest update is shown
+            long[] update = updates.get(updates.size() - 1);
+            long bytesRead = update[0];
+            double seconds = Math.max((System.nanoTime() - start) / 1e9, 1e-3);
+            double bytesPerSecond = bytesRead / seconds;
+
+            progressBar.setValue(length == 0 ? PROGRESS_MAX : (int) (PROGRESS_MAX * Math.min(bytesRead, length) / length));
+            statusLabel.setText(String.format("%,d chunks, %.2f MiB/s, %s left", update[1], bytesPerSecond / MIB,
+                    bytesPerSecond > 0 ? formatTime((long) ((length - bytesRead) / bytesPerSecond)) : "?"));
+        }
+
+        @Override
+        protected void done() {
+            try {
+                if (!isCancelled())
+                    get();
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                JOptionPane.showMessageDialog(null, input.getName() + ": " + (cause instanceof RSAException ?
+                        ((RSAException) cause).geteMessage() : cause.getMessage()));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+
+            //cancelled before the background work started, nothing else will finish it
+            if (started.compareAndSet(false, true))
+                finish();
+        }
+
+        private void finish() {
+            if (current == this) {
+                current = null;
+                startNext();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return (publicKey != null ? "encrypt " : "decrypt ") + input.getPath();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package rsa;
+
+import exceptions.CancelledException;
+import exceptions.RSAException;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+/**
+ * Bulk part of the hybrid mode: the payload encrypted by AES-GCM with a session key.
+ *
+ * The session key itself is encrypted by RSA, see RSACipher.encrypt. The payload is cut into
+ * records of RECORD_SIZE bytes, each with its own nonce and tag, so neither side has to hold
+ * the whole file in memory. The last record is marked in its associated data, so a cypher text
+ * cut at a record boundary does not decrypt.
+ */
+class HybridCipher {
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int RECORD_SIZE = 64 * 1024;
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH = 16;
+    private static final int AES_128_KEY_LENGTH = 16;
+    private static final int AES_256_KEY_LENGTH = 32;
+    private static final byte[] RECORD = {0};
+    private static final byte[] LAST_RECORD = {1};
+    //two plain records, the encrypted one and the buffer of the GCM decryption
+    static final int WORKING_SET_SIZE = 4 * (RECORD_SIZE + TAG_LENGTH);
+
+    private final SecretKeySpec key;
+
+    HybridCipher(byte[] sessionKey) throws RSAException {
+        if (sessionKey.length != AES_128_KEY_LENGTH && sessionKey.length != AES_256_KEY_LENGTH)
+            throw new RSAException("Wrong key or corrupted cypher text.");
+
+        key = new SecretKeySpec(sessionKey, "AES");
+    }
+
+    static byte[] newSessionKey(int maxChunkSize) {
+        //the session key has to fit one chunk together with the padding of the last chunk
+        byte[] sessionKey = new byte[maxChunkSize > AES_256_KEY_LENGTH ? AES_256_KEY_LENGTH : AES_128_KEY_LENGTH];
+        new SecureRandom().nextBytes(sessionKey);
+
+        return sessionKey;
+    }
+
+    void encrypt(ReadableByteChannel plainText, WritableByteChannel cypherText,
+                 CipherProgress progress, long bytesRead) throws RSAException, IOException {
+        byte[] iv = new byte[IV_LENGTH];
+        new SecureRandom().nextBytes(iv);
+        RSACipher.writeFully(cypherText, iv, IV_LENGTH);
+
+        Cipher cipher = newCipher();
+        byte[] record = EngineMetrics.get().newBuffer(RECORD_SIZE);
+        byte[] nextRecord = EngineMetrics.get().newBuffer(RECORD_SIZE);
+        byte[] encryptedRecord = EngineMetrics.get().newBuffer(RECORD_SIZE + TAG_LENGTH);
+
+        //a record is the last one when it is not full or nothing follows it
+        int length = RSACipher.readFully(plainText, record, 0, RECORD_SIZE);
+        for (int counter = 0; ; counter++) {
+            int nextLength = length < RECORD_SIZE ? 0 : RSACipher.readFully(plainText, nextRecord, 0, RECORD_SIZE);
+            boolean last = nextLength == 0;
+
+            try {
+                cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, nonce(iv, counter)));
+                cipher.updateAAD(last ? LAST_RECORD : RECORD);
+                int encryptedLength = cipher.doFinal(record, 0, length, encryptedRecord, 0);
+                RSACipher.writeFully(cypherText, encryptedRecord, encryptedLength);
+            } catch (GeneralSecurityException ex) {
+                throw new RSAException("AES-GCM encryption failed: " + ex.getMessage());
+            }
+
+            bytesRead += length;
+            progress.update(bytesRead, counter + 1);
+            if (last)
+                break;
+            else if (progress.isCancelled())
+                throw new CancelledException();
+
+            byte[] tmp = record;
+            record = nextRecord;
+            nextRecord = tmp;
+            length = nextLength;
+        }
+    }
+
+    void decrypt(ReadableByteChannel cypherText, WritableByteChannel plainText,
+                 CipherProgress progress, long bytesRead) throws RSAException, IOException {
+        byte[] iv = new byte[IV_LENGTH];
+        if (RSACipher.readFully(cypherText, iv, 0, IV_LENGTH) != IV_LENGTH)
+            throw new RSAException("Cypher text is truncated.");
+        bytesRead += IV_LENGTH;
+
+        Cipher cipher = newCipher();
+        byte[] record = EngineMetrics.get().newBuffer(RECORD_SIZE + TAG_LENGTH);
+        byte[] nextRecord = EngineMetrics.get().newBuffer(RECORD_SIZE + TAG_LENGTH);
+        byte[] decryptedRecord = EngineMetrics.get().newBuffer(RECORD_SIZE);
+
+        int length = RSACipher.readFully(cypherText, record, 0, record.length);
+        for (int counter = 0; ; counter++) {
+            int nextLength = length < record.length ? 0 : RSACipher.readFully(cypherText, nextRecord, 0, record.length);
+            boolean last = nextLength == 0;
+
+            if (length < TAG_LENGTH)
+                throw new RSAException("Cypher text is truncated.");
+
+            try {
+                cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, nonce(iv, counter)));
+                cipher.updateAAD(last ? LAST_RECORD : RECORD);
+                int decryptedLength = cipher.doFinal(record, 0, length, decryptedRecord, 0);
+                RSACipher.writeFully(plainText, decryptedRecord, decryptedLength);
+            } catch (AEADBadTagException ex) {
+                throw new RSAException("Wrong key or corrupted cypher text.");
+            } catch (GeneralSecurityException ex) {
+                throw new RSAException("AES-GCM decryption failed: " + ex.getMessage());
+            }
+
+            bytesRead += length;
+            progress.update(bytesRead, counter + 1);
+            if (last)
+                break;
+            else if (progress.isCancelled())
+                throw new CancelledException();
+
+            byte[] tmp = record;
+            record = nextRecord;
+            nextRecord = tmp;
+            length = nextLength;
+        }
+    }
+
+    private static Cipher newCipher() throws RSAException {
+        try {
+            return Cipher.getInstance(TRANSFORMATION);
+        } catch (GeneralSecurityException ex) {
+            throw new RSAException("AES-GCM is not available: " + ex.getMessage());
+        }
+    }
+
+    private static byte[] nonce(byte[] iv, int counter) {
+        //the record counter is xored into the last four bytes of the random IV
+        byte[] nonce = iv.clone();
+        ByteBuffer buffer = ByteBuffer.wrap(nonce);
+        buffer.putInt(IV_LENGTH - Integer.BYTES, buffer.getInt(IV_LENGTH - Integer.BYTES) ^ counter);
+
+        return nonce;
+    }
+}
@@ -0,0 +1,88 @@
+package rsa;
+
+import java.math.BigInteger;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Bounded cache of the per-key precomputed exponentiations, keyed by the key fingerprint.
+ *
+ * The least recently used key is evicted once the cache holds more than maxEntries keys.
+ * The cached functions only read their Montgomery contexts, so every thread can use them at once.
+ */
+class KeyContextCache {
+    private final int maxEntries;
+    private final Map<String, UnaryOperator<BigInteger>> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    KeyContextCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        //access order makes the first entry the least recently used one
+        entries = new LinkedHashMap<String, UnaryOperator<BigInteger>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, UnaryOperator<BigInteger>> eldest) {
+                if (size() <= KeyContextCache.this.maxEntries)
+                    return false;
+
+                evictions.incrementAndGet();
+                return true;
+            }
+        };
+    }
+
+    UnaryOperator<BigInteger> encryption(RSAPublicKey key) {
+        return get(key.getFingerprint(), key::newEncryption);
+    }
+
+    UnaryOperator<BigInteger> decryption(RSAPrivateKey key) {
+        return get(key.getFingerprint(), key::newDecryption);
+    }
+
+    private UnaryOperator<BigInteger> get(String fingerprint, Supplier<UnaryOperator<BigInteger>> factory) {
+        UnaryOperator<BigInteger> function;
+        synchronized (entries) {
+            function = entries.get(fingerprint);
+        }
+
+        if (function != null) {
+            hits.incrementAndGet();
+            return function;
+        }
+
+        //the contexts are built outside the lock, two threads missing the same key at once
+        //build them both and the first one stays
+        misses.incrementAndGet();
+        function = factory.get();
+        synchronized (entries) {
+            UnaryOperator<BigInteger> cached = entries.putIfAbsent(fingerprint, function);
+            return cached != null ? cached : function;
+        }
+    }
+
+    int getMaxEntries() {
+        return maxEntries;
+    }
+
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    long getEvictions() {
+        return evictions.get();
+    }
+}
@@ -0,0 +1,70 @@
+package rsa;
+
+import exceptions.RSAException;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.NoSuchElementException;
+import java.util.Scanner;
+
+/**
+ * Text key files written by the GUI: publicKey.txt holds n and e, privateKey.txt holds n and d,
+ * optionally followed by the CRT components p, q, dP, dQ and qInv. One number per line.
+ */
+public final class KeyFiles {
+    public static final String PUBLIC_KEY_FILE = "publicKey.txt";
+    public static final String PRIVATE_KEY_FILE = "privateKey.txt";
+
+    private KeyFiles() {
+    }
+
+    public static RSAPublicKey readPublicKey(File file) throws RSAException, IOException {
+        try (Scanner input = new Scanner(new FileReader(file))) {
+            return new RSAPublicKey(input.nextBigInteger(), input.nextBigInteger());
+        } catch (NoSuchElementException ex) {
+            throw new RSAException("Wrong public key file " + file + ".");
+        }
+    }
+
+    public static RSAPrivateKey readPrivateKey(File file) throws RSAException, IOException {
+        try (Scanner input = new Scanner(new FileReader(file))) {
+            BigInteger n = input.nextBigInteger();
+            BigInteger d = input.nextBigInteger();
+
+            //older key files hold only (n, d)
+            if (!input.hasNextBigInteger())
+                return new RSAPrivateKey(n, d);
+
+            return new RSAPrivateKey(n, d, input.nextBigInteger(), input.nextBigInteger(),
+                    input.nextBigInteger(), input.nextBigInteger(), input.nextBigInteger());
+        } catch (NoSuchElementException ex) {
+            throw new RSAException("Wrong private key file " + file + ".");
+        }
+    }
+
+    public static void writePublicKey(File file, RSAPublicKey key) throws IOException {
+        try (FileWriter output = new FileWriter(file)) {
+            output.write(key.getN() + "\n");
+            output.write(key.getE().toString());
+        }
+    }
+
+    public static void writePrivateKey(File file, RSAPrivateKey key) throws IOException {
+        try (FileWriter output = new FileWriter(file)) {
+            output.write(key.getN() + "\n");
+            output.write(key.getD().toString());
+
+            //CRT components for the fast decryption
+            if (key.hasCrtComponents()) {
+                output.write("\n" + key.getP() + "\n");
+                output.write(key.getQ() + "\n");
+                output.write(key.getDP() + "\n");
+                output.write(key.getDQ() + "\n");
+                output.write(key.getQInv().toString());
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package rsa;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 over the kind of a key and its components, written as a hex string.
+ *
+ * Every component is preceded by its length, so different components never give the same input.
+ */
+final class KeyFingerprint {
+    //bytes of a SHA-256 hash
+    static final int HASH_SIZE = 32;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private KeyFingerprint() {
+    }
+
+    static String of(String kind, BigInteger... components) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            //every Java platform has to provide SHA-256
+            throw new IllegalStateException(ex);
+        }
+
+        digest.update(kind.getBytes(StandardCharsets.US_ASCII));
+        for (BigInteger component : components) {
+            byte[] bytes = component.toByteArray();
+            digest.update(new byte[]{(byte) (bytes.length >>> 24), (byte) (bytes.length >>> 16),
+                    (byte) (bytes.length >>> 8), (byte) bytes.length});
+            digest.update(bytes);
+        }
+
+        return toHex(digest.digest());
+    }
+
+    static String toHex(byte[] hash) {
+        char[] hex = new char[2 * hash.length];
+        for (int i = 0; i < hash.length; i++) {
+            hex[2 * i] = HEX[(hash[i] >>> 4) & 0x0f];
+            hex[2 * i + 1] = HEX[hash[i] & 0x0f];
+        }
+
+        return new String(hex);
+    }
+
+    static byte[] fromHex(String hex) {
+        //null when the string is not a hex encoded SHA-256
+        if (hex.length() != 2 * HASH_SIZE)
+            return null;
+
+        byte[] hash = new byte[HASH_SIZE];
+        for (int i = 0; i < hash.length; i++) {
+            int high = Character.digit(hex.charAt(2 * i), 16);
+            int low = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0)
+                return null;
+
+            hash[i] = (byte) (high << 4 | low);
+        }
+
+        return hash;
+    }
+}
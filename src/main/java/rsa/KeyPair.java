@@ -0,0 +1,56 @@
+package rsa;
+
+import java.math.BigInteger;
+
+/**
+ * Generated key pair: the public key (n, e) and the private key (n, d) with its CRT components.
+ */
+public class KeyPair {
+    private final RSAPublicKey publicKey;
+    private final RSAPrivateKey privateKey;
+
+    public KeyPair(RSAPublicKey publicKey, RSAPrivateKey privateKey) {
+        this.publicKey = publicKey;
+        this.privateKey = privateKey;
+    }
+
+    public RSAPublicKey getPublicKey() {
+        return publicKey;
+    }
+
+    public RSAPrivateKey getPrivateKey() {
+        return privateKey;
+    }
+
+    public BigInteger getN() {
+        return publicKey.getN();
+    }
+
+    public BigInteger getE() {
+        return publicKey.getE();
+    }
+
+    public BigInteger getD() {
+        return privateKey.getD();
+    }
+
+    public BigInteger getP() {
+        return privateKey.getP();
+    }
+
+    public BigInteger getQ() {
+        return privateKey.getQ();
+    }
+
+    public BigInteger getDP() {
+        return privateKey.getDP();
+    }
+
+    public BigInteger getDQ() {
+        return privateKey.getDQ();
+    }
+
+    public BigInteger getQInv() {
+        return privateKey.getQInv();
+    }
+}
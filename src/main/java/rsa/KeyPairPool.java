@@ -0,0 +1,154 @@
+package rsa;
+
+import exceptions.RSAException;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Key pairs of one size generated in advance on background threads.
+ *
+ * The pool is filled up to the high watermark. Whenever a take leaves fewer key pairs than
+ * the low watermark, the background threads refill it up to the high watermark again.
+ * The depth, hits, misses and failures of all the pools are summed up in EngineMetrics as well.
+ * An empty pool is a miss, the key pair is then generated by the caller. The constructor returns
+ * at once, the first key pairs are generated in the background as well.
+ */
+public class KeyPairPool implements AutoCloseable {
+    private static final EngineMetrics METRICS = EngineMetrics.get();
+
+    private final int keySize;
+    private final int lowWatermark;
+    private final int highWatermark;
+    private final ConcurrentLinkedQueue<KeyPair> keyPairs = new ConcurrentLinkedQueue<>();
+    private final ExecutorService generators;
+
+    //key pairs in the queue and the ones being generated for it
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile boolean closed;
+
+    public KeyPairPool(int keySize, int lowWatermark, int highWatermark, int threads) throws RSAException {
+        if (lowWatermark < 0 || highWatermark < Math.max(lowWatermark, 1) || threads < 1)
+            throw new RSAException("Wrong key pair pool watermarks or thread count.");
+        RSA.checkKeySize(keySize);
+
+        this.keySize = keySize;
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+        generators = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "key-pair-pool");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        refill();
+    }
+
+    public int getKeySize() {
+        return keySize;
+    }
+
+    public int getDepth() {
+        return depth.get();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public KeyPair take() throws RSAException {
+        KeyPair keyPair = keyPairs.poll();
+
+        if (keyPair != null) {
+            hits.incrementAndGet();
+            METRICS.recordKeyPairPoolTake(true);
+            METRICS.recordKeyPairPoolDepth(-1);
+            if (depth.decrementAndGet() < lowWatermark)
+                refill();
+
+            return keyPair;
+        }
+
+        misses.incrementAndGet();
+        METRICS.recordKeyPairPoolTake(false);
+        refill();
+        return RSA.generateKeyPair(keySize);
+    }
+
+    private void refill() {
+        //reserve the key pairs missing up to the high watermark, each one is a separate task
+        //so several threads can generate them
+        while (!closed) {
+            int scheduled = pending.get();
+            if (depth.get() + scheduled >= highWatermark)
+                return;
+
+            if (pending.compareAndSet(scheduled, scheduled + 1)) {
+                try {
+                    generators.execute(this::generate);
+                } catch (RejectedExecutionException ex) {
+                    //closed meanwhile
+                    pending.decrementAndGet();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void generate() {
+        try {
+            if (!closed) {
+                keyPairs.add(RSA.generateKeyPair(keySize));
+                depth.incrementAndGet();
+                METRICS.recordKeyPairPoolDepth(1);
+            }
+        } catch (RSAException ex) {
+            //interrupted by close or the prime generation failed
+            failures.incrementAndGet();
+            METRICS.recordKeyPairPoolFailure();
+        } finally {
+            pending.decrementAndGet();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        generators.shutdownNow();
+
+        try {
+            generators.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        //every key pair taken out once, so the depth summed up by the metrics stays right
+        while (keyPairs.poll() != null) {
+            depth.decrementAndGet();
+            METRICS.recordKeyPairPoolDepth(-1);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "KeyPairPool[keySize=" + keySize + ", depth=" + getDepth() + ", hits=" + getHits()
+                + ", misses=" + getMisses() + "]";
+    }
+}
@@ -0,0 +1,390 @@
+package rsa;
+
+import exceptions.RSAException;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Binary file of many keys, mapped to memory and looked up by the fingerprint of the public key.
+ *
+ * The header is followed by the index and the records. The index is an open addressing hash table
+ * of the fingerprints with twice as many slots as the keyring takes keys, so a lookup probes a slot
+ * or two and reads a single record, nothing is parsed. Every record has the same layout: the flags,
+ * the fingerprint and the numbers of the key as unsigned big-endian fields as long as the largest
+ * key the keyring takes: n, e, d, the CRT components and the Montgomery constants of n, p and q.
+ * A key read from the keyring encrypts and decrypts without any precomputation.
+ *
+ * Keys are added or replaced, never removed. One process writes a keyring at a time, the threads
+ * of that process may read it at once. The text key files of KeyFiles are imported and exported.
+ */
+public final class Keyring implements Closeable {
+    private static final byte[] MAGIC = {'R', 'S', 'A', 'K'};
+    private static final int VERSION = 1;
+    //magic, version, the largest key size, the capacity, the number of slots and the number of keys
+    private static final int HEADER_SIZE = MAGIC.length + 1 + 4 * Integer.BYTES;
+    private static final int KEY_COUNT_OFFSET = HEADER_SIZE - Integer.BYTES;
+    //the fingerprint and the record number plus one, zero marks an empty slot
+    private static final int SLOT_SIZE = KeyFingerprint.HASH_SIZE + Integer.BYTES;
+    private static final int FLAG_PRIVATE = 1;
+    private static final int FLAG_CRT = 2;
+    //the flags and the fingerprint precede the fields of a record
+    private static final int RECORD_HEADER_SIZE = Integer.BYTES + KeyFingerprint.HASH_SIZE;
+    private static final int N = 0, E = 1, D = 2, P = 3, Q = 4, DP = 5, DQ = 6, Q_INV = 7;
+    //nPrime and R^2 mod m of the moduli n, p and q, see MontgomeryContext
+    private static final int N_PRIME = 8, N_R_SQUARED = 9, P_PRIME = 10, P_R_SQUARED = 11,
+            Q_PRIME = 12, Q_R_SQUARED = 13;
+    private static final int FIELD_COUNT = 14;
+    private static final int MIN_KEY_SIZE = 16;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int maxKeySize;
+    private final int capacity;
+    private final int slotCount;
+    private final int fieldSize;
+    private final int recordSize;
+    private final int recordsOffset;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private int keyCount;
+
+    private Keyring(FileChannel channel, int maxKeySize, int capacity, int slotCount, int keyCount)
+            throws RSAException, IOException {
+        this.channel = channel;
+        this.maxKeySize = maxKeySize;
+        this.capacity = capacity;
+        this.slotCount = slotCount;
+        this.keyCount = keyCount;
+
+        //the whole file is a single mapping
+        long length = length(maxKeySize, capacity, slotCount);
+        if (length > Integer.MAX_VALUE)
+            throw new RSAException("Keyring cannot be larger than 2 GiB.");
+
+        fieldSize = (maxKeySize + 7) / 8;
+        recordSize = RECORD_HEADER_SIZE + FIELD_COUNT * fieldSize;
+        recordsOffset = HEADER_SIZE + slotCount * SLOT_SIZE;
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+    }
+
+    private static long length(int maxKeySize, int capacity, int slotCount) {
+        long recordSize = RECORD_HEADER_SIZE + FIELD_COUNT * ((maxKeySize + 7L) / 8);
+        return HEADER_SIZE + (long) slotCount * SLOT_SIZE + capacity * recordSize;
+    }
+
+    public static Keyring create(Path path, int maxKeySize, int capacity) throws RSAException, IOException {
+        if (maxKeySize < MIN_KEY_SIZE)
+            throw new RSAException("Keyring needs keys of at least " + MIN_KEY_SIZE + " bits.");
+        else if (capacity < 1 || capacity > Integer.MAX_VALUE / 4)
+            throw new RSAException("Wrong keyring capacity " + capacity + ".");
+
+        //a power of two at least twice the capacity, the probes stay short and always reach an empty slot
+        int slotCount = Integer.highestOneBit(2 * capacity - 1) << 1;
+        FileChannel channel = FileChannel.open(path, READ, WRITE, CREATE_NEW);
+        try {
+            Keyring keyring = new Keyring(channel, maxKeySize, capacity, slotCount, 0);
+            keyring.buffer.put(0, ByteBuffer.allocate(HEADER_SIZE)
+                    .put(MAGIC)
+                    .put((byte) VERSION)
+                    .putInt(maxKeySize)
+                    .putInt(capacity)
+                    .putInt(slotCount)
+                    .putInt(0)
+                    .array());
+
+            return keyring;
+        } catch (RSAException | IOException | RuntimeException ex) {
+            channel.close();
+            Files.delete(path);
+            throw ex;
+        }
+    }
+
+    public static Keyring open(Path path) throws RSAException, IOException {
+        FileChannel channel = FileChannel.open(path, READ, WRITE);
+        try {
+            byte[] header = new byte[HEADER_SIZE];
+            if (RSACipher.readAt(channel, header, HEADER_SIZE, 0) != HEADER_SIZE
+                    || !Arrays.equals(header, 0, MAGIC.length, MAGIC, 0, MAGIC.length))
+                throw new RSAException("Not a keyring file " + path + ".");
+
+            ByteBuffer fields = ByteBuffer.wrap(header, MAGIC.length, HEADER_SIZE - MAGIC.length);
+            int version = fields.get();
+            if (version != VERSION)
+                throw new RSAException("Unsupported keyring version " + version + ".");
+
+            int maxKeySize = fields.getInt();
+            int capacity = fields.getInt();
+            int slotCount = fields.getInt();
+            int keyCount = fields.getInt();
+            if (maxKeySize < MIN_KEY_SIZE || capacity < 1 || slotCount < 2 * capacity
+                    || Integer.bitCount(slotCount) != 1 || keyCount < 0 || keyCount > capacity)
+                throw new RSAException("Corrupted keyring header " + path + ".");
+
+            if (channel.size() != length(maxKeySize, capacity, slotCount))
+                throw new RSAException("Keyring file is truncated.");
+
+            return new Keyring(channel, maxKeySize, capacity, slotCount, keyCount);
+        } catch (RSAException | IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    public int getMaxKeySize() {
+        return maxKeySize;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return keyCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void add(KeyPair keyPair) throws RSAException {
+        add(keyPair.getPublicKey(), keyPair.getPrivateKey());
+    }
+
+    public void add(RSAPublicKey publicKey) throws RSAException {
+        add(publicKey, null);
+    }
+
+    private void add(RSAPublicKey publicKey, RSAPrivateKey privateKey) throws RSAException {
+        if (publicKey.getKeySize() > maxKeySize)
+            throw new RSAException("Keyring takes keys of up to " + maxKeySize + " bits.");
+        else if (privateKey != null && !privateKey.getN().equals(publicKey.getN()))
+            throw new RSAException("The private key does not belong to the public key.");
+
+        byte[] fingerprint = KeyFingerprint.fromHex(publicKey.getFingerprint());
+        lock.writeLock().lock();
+        try {
+            int slot = findSlot(fingerprint);
+            int slotOffset = HEADER_SIZE + slot * SLOT_SIZE;
+            int record = buffer.getInt(slotOffset + KeyFingerprint.HASH_SIZE) - 1;
+
+            //a key added again replaces its record, e.g. a public key gets its private key
+            boolean added = record < 0;
+            if (added) {
+                if (keyCount == capacity)
+                    throw new RSAException("Keyring is full, it takes " + capacity + " keys.");
+                record = keyCount;
+            }
+
+            writeRecord(recordsOffset + record * recordSize, fingerprint, publicKey, privateKey);
+
+            //the record is complete before the index points to it
+            if (added) {
+                buffer.put(slotOffset, fingerprint);
+                buffer.putInt(slotOffset + KeyFingerprint.HASH_SIZE, record + 1);
+                buffer.putInt(KEY_COUNT_OFFSET, ++keyCount);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public KeyPair get(String fingerprint) throws RSAException {
+        //null when the keyring does not hold the key, the private key is null for a public key only
+        lock.readLock().lock();
+        try {
+            int offset = recordOffset(fingerprint);
+            return offset < 0 ? null : new KeyPair(readPublicKey(offset), readPrivateKey(offset));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public RSAPublicKey getPublicKey(String fingerprint) throws RSAException {
+        lock.readLock().lock();
+        try {
+            int offset = recordOffset(fingerprint);
+            return offset < 0 ? null : readPublicKey(offset);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public RSAPrivateKey getPrivateKey(String fingerprint) throws RSAException {
+        lock.readLock().lock();
+        try {
+            int offset = recordOffset(fingerprint);
+            return offset < 0 ? null : readPrivateKey(offset);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<String> getFingerprints() {
+        //in the order the keys were added
+        lock.readLock().lock();
+        try {
+            List<String> fingerprints = new ArrayList<>(keyCount);
+            byte[] fingerprint = new byte[KeyFingerprint.HASH_SIZE];
+            for (int i = 0; i < keyCount; i++) {
+                buffer.get(recordsOffset + i * recordSize + Integer.BYTES, fingerprint);
+                fingerprints.add(KeyFingerprint.toHex(fingerprint));
+            }
+
+            return fingerprints;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public String importKeyFiles(File publicKeyFile, File privateKeyFile) throws RSAException, IOException {
+        //the private key file is optional, returns the fingerprint of the key
+        RSAPublicKey publicKey = KeyFiles.readPublicKey(publicKeyFile);
+        add(publicKey, privateKeyFile == null ? null : KeyFiles.readPrivateKey(privateKeyFile));
+
+        return publicKey.getFingerprint();
+    }
+
+    public void exportKeyFiles(String fingerprint, File directory) throws RSAException, IOException {
+        KeyPair keyPair = get(fingerprint);
+        if (keyPair == null)
+            throw new RSAException("Keyring holds no key " + fingerprint + ".");
+
+        KeyFiles.writePublicKey(new File(directory, KeyFiles.PUBLIC_KEY_FILE), keyPair.getPublicKey());
+        if (keyPair.getPrivateKey() != null)
+            KeyFiles.writePrivateKey(new File(directory, KeyFiles.PRIVATE_KEY_FILE), keyPair.getPrivateKey());
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            buffer.force();
+            channel.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private int findSlot(byte[] fingerprint) {
+        //linear probing from the slot given by the fingerprint, which is uniformly distributed already,
+        //returns the slot holding the fingerprint or the empty slot it would take
+        byte[] stored = new byte[KeyFingerprint.HASH_SIZE];
+        int slot = (int) (ByteBuffer.wrap(fingerprint).getLong() & (slotCount - 1));
+
+        while (true) {
+            int offset = HEADER_SIZE + slot * SLOT_SIZE;
+            if (buffer.getInt(offset + KeyFingerprint.HASH_SIZE) == 0)
+                return slot;
+
+            buffer.get(offset, stored);
+            if (Arrays.equals(stored, fingerprint))
+                return slot;
+
+            slot = (slot + 1) & (slotCount - 1);
+        }
+    }
+
+    private int recordOffset(String fingerprint) throws RSAException {
+        //-1 when the keyring does not hold the key
+        byte[] hash = KeyFingerprint.fromHex(fingerprint);
+        if (hash == null)
+            throw new RSAException("Wrong key fingerprint " + fingerprint + ".");
+
+        int record = buffer.getInt(HEADER_SIZE + findSlot(hash) * SLOT_SIZE + KeyFingerprint.HASH_SIZE) - 1;
+        return record < 0 ? -1 : recordsOffset + record * recordSize;
+    }
+
+    private void writeRecord(int offset, byte[] fingerprint, RSAPublicKey publicKey, RSAPrivateKey privateKey) {
+        BigInteger[] fields = new BigInteger[FIELD_COUNT];
+        fields[N] = publicKey.getN();
+        fields[E] = publicKey.getE();
+
+        //the constants of n are shared by e and d
+        MontgomeryContext nContext = new MontgomeryContext(publicKey.getN(), publicKey.getE());
+        fields[N_PRIME] = nContext.getNPrime();
+        fields[N_R_SQUARED] = nContext.getRSquared();
+
+        int flags = 0;
+        if (privateKey != null) {
+            flags |= FLAG_PRIVATE;
+            fields[D] = privateKey.getD();
+
+            if (privateKey.hasCrtComponents()) {
+                flags |= FLAG_CRT;
+                fields[P] = privateKey.getP();
+                fields[Q] = privateKey.getQ();
+                fields[DP] = privateKey.getDP();
+                fields[DQ] = privateKey.getDQ();
+                fields[Q_INV] = privateKey.getQInv();
+
+                MontgomeryContext pContext = new MontgomeryContext(privateKey.getP(), privateKey.getDP());
+                MontgomeryContext qContext = new MontgomeryContext(privateKey.getQ(), privateKey.getDQ());
+                fields[P_PRIME] = pContext.getNPrime();
+                fields[P_R_SQUARED] = pContext.getRSquared();
+                fields[Q_PRIME] = qContext.getNPrime();
+                fields[Q_R_SQUARED] = qContext.getRSquared();
+            }
+        }
+
+        buffer.putInt(offset, flags);
+        buffer.put(offset + Integer.BYTES, fingerprint);
+        ChunkCodec codec = ChunkCodec.forThread();
+        for (int i = 0; i < FIELD_COUNT; i++)
+            //the missing fields are zeros
+            codec.writeChunk(fields[i] == null ? BigInteger.ZERO : fields[i], buffer, fieldOffset(offset, i), fieldSize);
+    }
+
+    private RSAPublicKey readPublicKey(int offset) throws RSAException {
+        BigInteger n = readField(offset, N);
+        BigInteger e = readField(offset, E);
+
+        return new RSAPublicKey(n, e,
+                new MontgomeryContext(n, e, readField(offset, N_PRIME), readField(offset, N_R_SQUARED)));
+    }
+
+    private RSAPrivateKey readPrivateKey(int offset) throws RSAException {
+        int flags = buffer.getInt(offset);
+        if ((flags & FLAG_PRIVATE) == 0)
+            return null;
+
+        BigInteger n = readField(offset, N);
+        BigInteger d = readField(offset, D);
+        if ((flags & FLAG_CRT) == 0)
+            return new RSAPrivateKey(n, d, null, null, null, null, null,
+                    new MontgomeryContext(n, d, readField(offset, N_PRIME), readField(offset, N_R_SQUARED)),
+                    null, null);
+
+        BigInteger p = readField(offset, P);
+        BigInteger q = readField(offset, Q);
+        BigInteger dP = readField(offset, DP);
+        BigInteger dQ = readField(offset, DQ);
+
+        return new RSAPrivateKey(n, d, p, q, dP, dQ, readField(offset, Q_INV), null,
+                new MontgomeryContext(p, dP, readField(offset, P_PRIME), readField(offset, P_R_SQUARED)),
+                new MontgomeryContext(q, dQ, readField(offset, Q_PRIME), readField(offset, Q_R_SQUARED)));
+    }
+
+    private BigInteger readField(int offset, int field) {
+        return ChunkCodec.forThread().readChunk(buffer, fieldOffset(offset, field), fieldSize);
+    }
+
+    private int fieldOffset(int offset, int field) {
+        return offset + RECORD_HEADER_SIZE + field * fieldSize;
+    }
+}
@@ -0,0 +1,350 @@
+package rsa;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * Montgomery arithmetic on fixed-width numbers of 64-bit limbs, least significant limb first.
+ *
+ * For moduli of up to MAX_LIMBS limbs (the default 256-bit key takes four) the operands are
+ * mutable long arrays, a multiplication is fused with its reduction (CIOS) and a squaring computes
+ * every cross product only once before its reduction (REDC). Nothing is allocated per multiplication,
+ * the results go to arrays of the caller, which may be the operands themselves; an exponentiation
+ * still allocates its scratch, its table of odd powers and the conversions from and to BigInteger.
+ * R = 2^(64 * limbs), so the Montgomery form differs from the one of MontgomeryContext, the values
+ * convert at the ends. The constants may be derived from the ones of a MontgomeryContext (e.g. stored
+ * by a Keyring), which saves the division computing R^2. An instance only reads its constants and can
+ * be shared between threads. The Jacobi symbol of the prime search is computed on the limbs as well.
+ */
+final class LimbArithmetic {
+    static final int MAX_LIMBS = 8;
+
+    private final int limbs;
+    private final long[] modulus;
+    //-modulus^-1 mod 2^64
+    private final long nPrime;
+    //R^2 mod modulus converts to the Montgomery form
+    private final long[] rSquared;
+
+    LimbArithmetic(BigInteger modulus) {
+        limbs = limbCount(modulus);
+        this.modulus = toLimbs(modulus, limbs);
+        rSquared = toLimbs(BigInteger.ONE.shiftLeft(2 * Long.SIZE * limbs).mod(modulus), limbs);
+        nPrime = inverse(this.modulus[0]);
+    }
+
+    LimbArithmetic(BigInteger modulus, int rBits, BigInteger nPrime, BigInteger rSquared) {
+        //nPrime = -modulus^-1 mod 2^rBits and rSquared = 2^(2 * rBits) mod modulus for an R of
+        //at most the limbs, like the ones of MontgomeryContext
+        limbs = limbCount(modulus);
+        this.modulus = toLimbs(modulus, limbs);
+        this.nPrime = rBits >= Long.SIZE ? nPrime.longValue() : inverse(this.modulus[0]);
+
+        //R of the limbs is 2^shift times the given R, so R^2 is doubled 2 * shift times;
+        //the shift is 0 when the modulus fills its limbs, e.g. for the default key
+        this.rSquared = toLimbs(rSquared, limbs);
+        long[] t = new long[limbs + 1];
+        for (int i = 0; i < 2 * (Long.SIZE * limbs - rBits); i++) {
+            long shifted = 0;
+            for (int j = 0; j < limbs; j++) {
+                t[j] = this.rSquared[j] << 1 | shifted;
+                shifted = this.rSquared[j] >>> 63;
+            }
+            t[limbs] = shifted;
+            subtractModulus(t, this.rSquared);
+        }
+    }
+
+    private static long inverse(long n0) {
+        //-n0^-1 mod 2^64, Newton's iteration doubles the correct low bits,
+        //an odd number is its own inverse mod 8
+        long inverse = n0;
+        for (int i = 0; i < 5; i++)
+            inverse *= 2 - n0 * inverse;
+
+        return -inverse;
+    }
+
+    static boolean fits(BigInteger modulus) {
+        return limbCount(modulus) <= MAX_LIMBS;
+    }
+
+    static int limbCount(BigInteger modulus) {
+        return (modulus.bitLength() + Long.SIZE - 1) / Long.SIZE;
+    }
+
+    int getLimbs() {
+        return limbs;
+    }
+
+    long getNPrime() {
+        return nPrime;
+    }
+
+    long[] getRSquared() {
+        return rSquared.clone();
+    }
+
+    long[] newNumber() {
+        return new long[limbs];
+    }
+
+    long[] newScratch() {
+        //the double-width product of a squaring and a carry limb
+        return new long[2 * limbs + 1];
+    }
+
+    static long[] toLimbs(BigInteger x, int limbs) {
+        //x is non-negative and fits the limbs
+        long[] result = new long[limbs];
+        byte[] bytes = x.toByteArray();
+        for (int i = 0; i < bytes.length && i < Long.BYTES * limbs; i++)
+            result[i / Long.BYTES] |= (bytes[bytes.length - 1 - i] & 0xFFL) << (8 * (i % Long.BYTES));
+
+        return result;
+    }
+
+    static BigInteger toBigInteger(long[] x) {
+        byte[] bytes = new byte[Long.BYTES * x.length];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[bytes.length - 1 - i] = (byte) (x[i / Long.BYTES] >>> (8 * (i % Long.BYTES)));
+
+        return new BigInteger(1, bytes);
+    }
+
+    void toMontgomery(long[] x, long[] result, long[] scratch) {
+        //x * R mod modulus, x is below the modulus
+        multiply(x, rSquared, result, scratch);
+    }
+
+    void fromMontgomery(long[] x, long[] result, long[] scratch) {
+        //x * R^-1 mod modulus, a REDC of x alone
+        System.arraycopy(x, 0, scratch, 0, limbs);
+        Arrays.fill(scratch, limbs, scratch.length, 0);
+        reduce(scratch, result);
+    }
+
+    void multiply(long[] a, long[] b, long[] result, long[] scratch) {
+        //a * b * R^-1 mod modulus, CIOS: every row of the product is reduced right away,
+        //so the intermediate value keeps limbs + 2 limbs
+        //https://www.microsoft.com/en-us/research/wp-content/uploads/1996/01/j37acmon.pdf
+        long[] t = scratch;
+        Arrays.fill(t, 0, limbs + 2, 0);
+
+        for (int i = 0; i < limbs; i++) {
+            //t += a * b[i]
+            long bi = b[i];
+            long carry = 0;
+            for (int j = 0; j < limbs; j++) {
+                long product = a[j] * bi;
+                long high = multiplyHigh(a[j], bi);
+                long sum = product + carry;
+                high += carry(product, carry, sum);
+                long total = sum + t[j];
+                high += carry(sum, t[j], total);
+                t[j] = total;
+                carry = high;
+            }
+            long sum = t[limbs] + carry;
+            t[limbs + 1] = carry(t[limbs], carry, sum);
+            t[limbs] = sum;
+
+            //t = (t + m * modulus) / 2^64, m makes the lowest limb zero
+            long m = t[0] * nPrime;
+            long product = m * modulus[0];
+            sum = product + t[0];
+            carry = multiplyHigh(m, modulus[0]) + carry(product, t[0], sum);
+            for (int j = 1; j < limbs; j++) {
+                product = m * modulus[j];
+                long high = multiplyHigh(m, modulus[j]);
+                sum = product + carry;
+                high += carry(product, carry, sum);
+                long total = sum + t[j];
+                high += carry(sum, t[j], total);
+                t[j - 1] = total;
+                carry = high;
+            }
+            sum = t[limbs] + carry;
+            t[limbs] = t[limbs + 1] + carry(t[limbs], carry, sum);
+            t[limbs - 1] = sum;
+        }
+
+        subtractModulus(t, result);
+    }
+
+    void square(long[] a, long[] result, long[] scratch) {
+        //a^2 * R^-1 mod modulus, the cross products a[i] * a[j] for i < j are computed once and doubled
+        long[] t = scratch;
+        Arrays.fill(t, 0);
+
+        for (int i = 0; i < limbs - 1; i++) {
+            long carry = 0;
+            for (int j = i + 1; j < limbs; j++) {
+                long product = a[i] * a[j];
+                long high = multiplyHigh(a[i], a[j]);
+                long sum = product + carry;
+                high += carry(product, carry, sum);
+                long total = sum + t[i + j];
+                high += carry(sum, t[i + j], total);
+                t[i + j] = total;
+                carry = high;
+            }
+            t[i + limbs] = carry;
+        }
+
+        //double the cross products and add the squares a[i]^2
+        long shifted = 0;
+        long carry = 0;
+        for (int i = 0; i < limbs; i++) {
+            long low = a[i] * a[i];
+            long high = multiplyHigh(a[i], a[i]);
+
+            long even = t[2 * i];
+            long odd = t[2 * i + 1];
+            long evenDoubled = even << 1 | shifted;
+            long oddDoubled = odd << 1 | even >>> 63;
+            shifted = odd >>> 63;
+
+            long sum = evenDoubled + low + carry;
+            carry = carry(evenDoubled, low, sum);
+            t[2 * i] = sum;
+
+            sum = oddDoubled + high + carry;
+            carry = carry(oddDoubled, high, sum);
+            t[2 * i + 1] = sum;
+        }
+        //a^2 fits 2 * limbs limbs, so neither the last shifted bit nor the last carry is set
+
+        reduce(t, result);
+    }
+
+    private void reduce(long[] t, long[] result) {
+        //REDC of the double-width t: limbs times add m * modulus, which zeroes the lowest limb,
+        //the result is in the upper half; the carry out of a row goes into the next one
+        long rowCarry = 0;
+        for (int i = 0; i < limbs; i++) {
+            long m = t[i] * nPrime;
+            long carry = 0;
+            for (int j = 0; j < limbs; j++) {
+                long product = m * modulus[j];
+                long high = multiplyHigh(m, modulus[j]);
+                long sum = product + carry;
+                high += carry(product, carry, sum);
+                long total = sum + t[i + j];
+                high += carry(sum, t[i + j], total);
+                t[i + j] = total;
+                carry = high;
+            }
+
+            long upper = t[i + limbs];
+            long sum = upper + carry + rowCarry;
+            rowCarry = carry(upper, carry, sum);
+            t[i + limbs] = sum;
+        }
+
+        System.arraycopy(t, limbs, t, 0, limbs);
+        t[limbs] = rowCarry;
+        subtractModulus(t, result);
+    }
+
+    private void subtractModulus(long[] t, long[] result) {
+        //t has limbs + 1 limbs and is below 2 * modulus, the result is t or t - modulus;
+        //both are computed and one is selected by a mask, without a data dependent branch
+        long borrow = 0;
+        for (int i = 0; i < limbs; i++) {
+            long difference = t[i] - modulus[i] - borrow;
+            borrow = borrow(t[i], modulus[i], difference);
+            result[i] = difference;
+        }
+
+        //t is below the modulus when the subtraction borrowed past the limbs + 1 limbs
+        long keep = -(borrow & ~t[limbs]);
+        for (int i = 0; i < limbs; i++)
+            result[i] ^= (result[i] ^ t[i]) & keep;
+    }
+
+    static int jacobi(long[] a, long[] n) {
+        //the Jacobi symbol (a/n) of an a below the odd n, both of the same number of limbs and
+        //overwritten; the binary algorithm only shifts and subtracts in place, a division is not needed
+        //https://en.wikipedia.org/wiki/Jacobi_symbol#Calculating_the_Jacobi_symbol
+        int result = 1;
+        int length = a.length;
+
+        while (true) {
+            //both numbers shrink, the zero upper limbs are left out
+            while (length > 0 && a[length - 1] == 0 && n[length - 1] == 0)
+                length--;
+            int lowest = 0;
+            while (lowest < length && a[lowest] == 0)
+                lowest++;
+            if (lowest == length)
+                break;
+
+            int zeros = Long.SIZE * lowest + Long.numberOfTrailingZeros(a[lowest]);
+            shiftRight(a, length, zeros);
+            int nMod8 = (int) (n[0] & 7);
+            if ((zeros & 1) == 1 && (nMod8 == 3 || nMod8 == 5))
+                result = -result;
+
+            //both are odd, the reciprocity swaps them so that a - n is even and not negative
+            if (compare(a, n, length) < 0) {
+                if ((a[0] & 3) == 3 && (nMod8 & 3) == 3)
+                    result = -result;
+                long[] tmp = a;
+                a = n;
+                n = tmp;
+            }
+            subtract(a, n, length);
+        }
+
+        //n is gcd(a, n) now
+        for (int i = 1; i < n.length; i++)
+            if (n[i] != 0)
+                return 0;
+
+        return n[0] == 1 ? result : 0;
+    }
+
+    private static void shiftRight(long[] x, int length, int bits) {
+        int limbShift = bits / Long.SIZE;
+        int bitShift = bits % Long.SIZE;
+        for (int i = 0; i < length; i++) {
+            long low = i + limbShift < length ? x[i + limbShift] : 0;
+            long high = i + limbShift + 1 < length ? x[i + limbShift + 1] : 0;
+            x[i] = bitShift == 0 ? low : low >>> bitShift | high << (Long.SIZE - bitShift);
+        }
+    }
+
+    private static int compare(long[] x, long[] y, int length) {
+        for (int i = length - 1; i >= 0; i--)
+            if (x[i] != y[i])
+                return Long.compareUnsigned(x[i], y[i]);
+
+        return 0;
+    }
+
+    private static void subtract(long[] x, long[] y, int length) {
+        //x -= y, x is not below y
+        long borrow = 0;
+        for (int i = 0; i < length; i++) {
+            long difference = x[i] - y[i] - borrow;
+            borrow = borrow(x[i], y[i], difference);
+            x[i] = difference;
+        }
+    }
+
+    private static long carry(long x, long y, long sum) {
+        //the carry out of sum = x + y + (0 or 1)
+        return ((x & y) | ((x | y) & ~sum)) >>> 63;
+    }
+
+    private static long borrow(long x, long y, long difference) {
+        //the borrow out of difference = x - y - (0 or 1)
+        return ((~x & y) | (~(x ^ y) & difference)) >>> 63;
+    }
+
+    private static long multiplyHigh(long a, long b) {
+        //the high limb of the unsigned product, Math.unsignedMultiplyHigh needs Java 18
+        return Math.multiplyHigh(a, b) + ((a >> 63) & b) + ((b >> 63) & a);
+    }
+}
@@ -0,0 +1,146 @@
+package rsa;
+
+import exceptions.RSAException;
+import exceptions.ServiceBusyException;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Load generator of EncryptionService: every client encrypts random data, decrypts the cypher text
+ * and checks the result, over and over until the time is up. Prints the throughput and
+ * the latency percentiles of both operations, and the requests rejected as busy.
+ */
+class LoadGenerator {
+    private static final double MIB = 1024 * 1024;
+    private static final double NANOS_PER_MILLI = 1e6;
+    //pause of a client after its request was rejected as busy
+    private static final int BUSY_PAUSE_MILLIS = 1;
+
+    private final int port;
+    private final String fingerprint;
+    private final int clients;
+    private final int requestSize;
+    private final long durationNanos;
+
+    LoadGenerator(int port, String fingerprint, int clients, int requestSize, int seconds) {
+        this.port = port;
+        this.fingerprint = fingerprint;
+        this.clients = clients;
+        this.requestSize = requestSize;
+        durationNanos = seconds * 1_000_000_000L;
+    }
+
+    boolean run(PrintStream out) throws InterruptedException {
+        //returns false when any request failed
+        List<Client> workers = new ArrayList<>();
+        for (int i = 0; i < clients; i++)
+            workers.add(new Client(i));
+
+        long start = System.nanoTime();
+        for (Client client : workers)
+            client.start();
+        for (Client client : workers)
+            client.join();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        Latencies encryptions = new Latencies();
+        Latencies decryptions = new Latencies();
+        long busy = 0, failed = 0;
+        for (Client client : workers) {
+            encryptions.addAll(client.encryptions);
+            decryptions.addAll(client.decryptions);
+            busy += client.busy;
+            failed += client.failed;
+        }
+
+        out.printf("%d clients, %d byte requests, %.2f s%n", clients, requestSize, seconds);
+        print(out, "encrypt", encryptions, seconds);
+        print(out, "decrypt", decryptions, seconds);
+        out.printf("%d busy, %d failed%n", busy, failed);
+
+        return failed == 0;
+    }
+
+    private void print(PrintStream out, String operation, Latencies latencies, double seconds) {
+        out.printf("%s: %d requests, %.1f requests/s, %.2f MiB/s, latency p50 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+                operation, latencies.size, latencies.size / seconds, latencies.size * (double) requestSize / MIB / seconds,
+                latencies.percentile(50) / NANOS_PER_MILLI, latencies.percentile(99) / NANOS_PER_MILLI,
+                latencies.percentile(100) / NANOS_PER_MILLI);
+    }
+
+    private class Client extends Thread {
+        private final Latencies encryptions = new Latencies();
+        private final Latencies decryptions = new Latencies();
+        private final Random rnd;
+        private long busy, failed;
+
+        Client(int id) {
+            super("load-client-" + id);
+            rnd = new Random(id);
+        }
+
+        @Override
+        public void run() {
+            byte[] plainText = new byte[requestSize];
+            long deadline = System.nanoTime() + durationNanos;
+
+            try (ServiceClient client = new ServiceClient(port)) {
+                while (System.nanoTime() - deadline < 0) {
+                    rnd.nextBytes(plainText);
+                    try {
+                        long start = System.nanoTime();
+                        byte[] cypherText = client.encrypt(fingerprint, plainText);
+                        long encrypted = System.nanoTime();
+                        byte[] decrypted = client.decrypt(fingerprint, cypherText);
+                        encryptions.add(encrypted - start);
+                        decryptions.add(System.nanoTime() - encrypted);
+
+                        if (!Arrays.equals(plainText, decrypted))
+                            failed++;
+                    } catch (ServiceBusyException ex) {
+                        busy++;
+                        Thread.sleep(BUSY_PAUSE_MILLIS);
+                    } catch (RSAException ex) {
+                        failed++;
+                    }
+                }
+            } catch (IOException ex) {
+                //the connection is gone, the client stops
+                failed++;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static class Latencies {
+        //every latency is kept, the percentiles are exact
+        private long[] values = new long[1024];
+        private int size;
+
+        void add(long nanos) {
+            if (size == values.length)
+                values = Arrays.copyOf(values, 2 * size);
+            values[size++] = nanos;
+        }
+
+        void addAll(Latencies latencies) {
+            for (int i = 0; i < latencies.size; i++)
+                add(latencies.values[i]);
+        }
+
+        long percentile(double percentile) {
+            if (size == 0)
+                return 0;
+
+            long[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            return sorted[(int) Math.min(size - 1, Math.max(0, Math.ceil(percentile / 100 * size) - 1))];
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package rsa;
+
+import exceptions.RSAException;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Created by marek on 3/11/16.
+ */
+public class Main {
+    //key pairs kept ready for the key generation of the GUI, of the last generated size
+    private static final int POOL_LOW_WATERMARK = 1;
+    private static final int POOL_HIGH_WATERMARK = 2;
+    private static final int POOL_THREADS = 1;
+
+    public static RSA rsa = new RSA();
+
+    public static void main(String[] args) {
+        //any arguments run the headless batch mode (see CommandLine) or the service (see ServiceCommand)
+        if (args.length > 0)
+            System.exit(ServiceCommand.handles(args) ? ServiceCommand.run(args) : CommandLine.run(args));
+
+        try {
+            usePool(RSA.DEFAULT_KEY_SIZE);
+        } catch (RSAException ex) {
+            //the key pairs are generated on demand then
+        }
+
+        MainWindow mainWindow = new MainWindow();
+    }
+
+    static void usePool(int keySize) throws RSAException {
+        //the pool follows the last generated key size, the pool of another size is closed
+        KeyPairPool replaced;
+        synchronized (Main.class) {
+            replaced = rsa.getKeyPairPool();
+            if (replaced != null && replaced.getKeySize() == keySize)
+                return;
+
+            rsa.setKeyPairPool(new KeyPairPool(keySize, POOL_LOW_WATERMARK, POOL_HIGH_WATERMARK, POOL_THREADS));
+        }
+
+        //closing waits for the generators to stop, neither the caller nor the lock waits for it
+        if (replaced != null)
+            CompletableFuture.runAsync(replaced::close);
+    }
+}
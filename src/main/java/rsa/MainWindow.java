@@ -1,16 +1,18 @@
+package rsa;
+
 import exceptions.RSAException;
 
 import javax.swing.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.*;
-import java.nio.file.Files;
-import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Created by marek on 3/11/16.
  */
 public class MainWindow {
+    private static final Integer[] KEY_SIZES = {256, 1024, 2048, 3072, 4096};
     private JButton OKButton;
     private JPanel panel1;
     private JButton saveKeyPairButton;
@@ -23,6 +25,7 @@ public class MainWindow {
     private JLabel privKeyELabel;
     private JTextField chunkSizeTextField;
     private JLabel chunkSizeLabel;
+    private final FileQueue fileQueue = new FileQueue();
 
     public MainWindow() {
         prepareGui();
@@ -32,6 +35,7 @@ public class MainWindow {
         loadPrivateKeyButton.addActionListener(new LoadPrivateKeyButtonListener());
         encryptFileButton.addActionListener(new EncryptFileButtonListener());
         decryptFileButton.addActionListener(new DecryptFileButtonListener());
+        updateChunkSizeLabel();
     }
 
     public void prepareGui() {
@@ -42,17 +46,61 @@ public class MainWindow {
         frame.setVisible(true);
     }
 
+    private void updateChunkSizeLabel() {
+        //the largest chunk depends on the size of the loaded key
+        chunkSizeLabel.setText("Chunk size (auto, " + Main.rsa.getMinChunkSize() + "-"
+                + Main.rsa.getMaxChunkSize() + ")");
+    }
+
 
     private class KeyGenButtonListener implements ActionListener {
         public void actionPerformed(ActionEvent e) {
-            Main.rsa.createKeyPair();
-            try {
-                pubKeyNLabel.setText("modulus N: " + Main.rsa.getN());
-                pubKeyELabel.setText("public exponent: " + Main.rsa.getE());
-                privKeyELabel.setText("private exponent:" + Main.rsa.getD());
-            } catch (RSAException ex) {
-                JOptionPane.showMessageDialog(null, ex.geteMessage());
-            }
+            Object keySize = JOptionPane.showInputDialog(null, "Key size in bits:", "Generate new key pair",
+                    JOptionPane.QUESTION_MESSAGE, null, KEY_SIZES, KEY_SIZES[0]);
+            if (keySize == null)
+                return;
+
+            //large keys take a while, they are generated off the event dispatch thread
+            OKButton.setEnabled(false);
+            pubKeyNLabel.setText("modulus N: generating...");
+            new SwingWorker<KeyPair, Void>() {
+                @Override
+                protected KeyPair doInBackground() throws RSAException {
+                    KeyPair keyPair = Main.rsa.newKeyPair((Integer) keySize);
+                    //the next key pair of the same size is generated ahead
+                    Main.usePool((Integer) keySize);
+
+                    return keyPair;
+                }
+
+                @Override
+                protected void done() {
+                    try {
+                        KeyPair keyPair = get();
+                        Main.rsa.setPublicKey(keyPair.getPublicKey());
+                        Main.rsa.setPrivateKey(keyPair.getPrivateKey());
+                        pubKeyNLabel.setText("modulus N: " + Main.rsa.getN());
+                        pubKeyELabel.setText("public exponent: " + Main.rsa.getE());
+                        privKeyELabel.setText("private exponent:" + Main.rsa.getD());
+                        updateChunkSizeLabel();
+                    } catch (RSAException ex) {
+                        JOptionPane.showMessageDialog(null, ex.geteMessage());
+                    } catch (ExecutionException ex) {
+                        pubKeyNLabel.setText("modulus N:");
+                        JOptionPane.showMessageDialog(null, ex.getCause() instanceof RSAException ?
+                                ((RSAException) ex.getCause()).geteMessage() : ex.getCause().getMessage());
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        OKButton.setEnabled(true);
+                        //the pool is refilled in the background, the numbers are the ones of this moment
+                        EngineMetrics metrics = EngineMetrics.get();
+                        OKButton.setToolTipText("Key pairs ready: " + metrics.getKeyPairPoolDepth() + ", taken: "
+                                + metrics.getKeyPairPoolHits() + ", generated on demand: "
+                                + metrics.getKeyPairPoolMisses() + ", failed: " + metrics.getKeyPairPoolFailures());
+                    }
+                }
+            }.execute();
         }
     }
 
@@ -65,18 +113,13 @@ public class MainWindow {
             chooser.setAcceptAllFileFilterUsed(false);
 
             if (chooser.showSaveDialog(null) == JFileChooser.APPROVE_OPTION) {
-                try (FileWriter pubFile = new FileWriter(chooser.getSelectedFile() + "/publicKey.txt");
-                     FileWriter privFile = new FileWriter(chooser.getSelectedFile() + "/privateKey.txt")) {
-                    try {
-                        pubFile.write(Main.rsa.getN() + "\n");
-                        pubFile.write(Main.rsa.getE());
-
-                        privFile.write(Main.rsa.getN() + "\n");
-                        privFile.write(Main.rsa.getD());
-                    } catch (RSAException ex) {
-                        JOptionPane.showMessageDialog(null, ex.geteMessage());
-                    }
-
+                try {
+                    KeyFiles.writePublicKey(new File(chooser.getSelectedFile(), KeyFiles.PUBLIC_KEY_FILE),
+                            Main.rsa.getPublicKey());
+                    KeyFiles.writePrivateKey(new File(chooser.getSelectedFile(), KeyFiles.PRIVATE_KEY_FILE),
+                            Main.rsa.getPrivateKey());
+                } catch (RSAException ex) {
+                    JOptionPane.showMessageDialog(null, ex.geteMessage());
                 } catch (IOException ex) {
                     JOptionPane.showMessageDialog(null, ex.getMessage());
                 }
@@ -91,18 +134,15 @@ public class MainWindow {
             chooser.setDialogTitle("Load the the public key");
 
             if (chooser.showOpenDialog(null) == JFileChooser.APPROVE_OPTION) {
-                try (Scanner input = new Scanner(new FileReader(chooser.getSelectedFile()))) {
-                    Main.rsa.setN(input.nextBigInteger());
-                    Main.rsa.setE(input.nextBigInteger());
-                } catch (IOException ex) {
-                    JOptionPane.showMessageDialog(null, ex.getMessage());
-                }
-
                 try {
+                    Main.rsa.setPublicKey(KeyFiles.readPublicKey(chooser.getSelectedFile()));
                     pubKeyNLabel.setText("modulus N: " + Main.rsa.getN());
                     pubKeyELabel.setText("public exponent: " + Main.rsa.getE());
+                    updateChunkSizeLabel();
                 } catch (RSAException ex) {
                     JOptionPane.showMessageDialog(null, ex.geteMessage());
+                } catch (IOException ex) {
+                    JOptionPane.showMessageDialog(null, ex.getMessage());
                 }
             }
         }
@@ -115,18 +155,15 @@ public class MainWindow {
             chooser.setDialogTitle("Load the the private key");
 
             if (chooser.showOpenDialog(null) == JFileChooser.APPROVE_OPTION) {
-                try (Scanner input = new Scanner(new FileReader(chooser.getSelectedFile()))) {
-                    Main.rsa.setN(input.nextBigInteger());
-                    Main.rsa.setD(input.nextBigInteger());
-                } catch (IOException ex) {
-                    JOptionPane.showMessageDialog(null, ex.getMessage());
-                }
-
                 try {
+                    Main.rsa.setPrivateKey(KeyFiles.readPrivateKey(chooser.getSelectedFile()));
                     pubKeyNLabel.setText("modulus N: " + Main.rsa.getN());
                     privKeyELabel.setText("private exponent:" + Main.rsa.getD());
+                    updateChunkSizeLabel();
                 } catch (RSAException ex) {
                     JOptionPane.showMessageDialog(null, ex.geteMessage());
+                } catch (IOException ex) {
+                    JOptionPane.showMessageDialog(null, ex.getMessage());
                 }
             }
         }
@@ -136,27 +173,31 @@ public class MainWindow {
         public void actionPerformed(ActionEvent e) {
             JFileChooser chooser = new JFileChooser();
             chooser.setCurrentDirectory(new java.io.File("."));
-            chooser.setDialogTitle("File to encrypt");
+            chooser.setDialogTitle("Files to encrypt");
+            chooser.setMultiSelectionEnabled(true);
 
             if (chooser.showOpenDialog(null) == JFileChooser.APPROVE_OPTION) {
-                try (OutputStream outputStream = new FileOutputStream(
-                        chooser.getSelectedFile().getPath() + "Encrypted")) {
-
-                    //get the chunk size from the user
-                    int chunkSize = Integer.valueOf(chunkSizeTextField.getText());
-                    if (chunkSize < Main.rsa.getMinChunkSize() ||
-                            chunkSize > Main.rsa.getMaxChunkSize()) {
-                        JOptionPane.showMessageDialog(null, "Wrong chunk size");
-                        return;
-                    }
+                try {
 
-                    Main.rsa.setChunkSize(chunkSize);
-                    byte[] inputData = Files.readAllBytes(chooser.getSelectedFile().toPath());
-                    ByteArrayOutputStream outputData = Main.rsa.encryptFile(inputData);
-                    outputData.writeTo(outputStream);
+                    //get the chunk size from the user, auto packs the largest blocks the key allows
+                    String chunkSizeText = chunkSizeTextField.getText().trim();
+                    boolean packed = chunkSizeText.isEmpty() || chunkSizeText.equalsIgnoreCase("auto");
+                    if (!packed) {
+                        int chunkSize = Integer.valueOf(chunkSizeText);
+                        if (chunkSize < Main.rsa.getMinChunkSize() ||
+                                chunkSize > Main.rsa.getMaxChunkSize()) {
+                            JOptionPane.showMessageDialog(null, "Wrong chunk size, the loaded key takes "
+                                    + Main.rsa.getMinChunkSize() + " to " + Main.rsa.getMaxChunkSize() + " bytes");
+                            return;
+                        }
+
+                        Main.rsa.setChunkSize(chunkSize);
+                    }
+                    Main.rsa.setPacked(packed);
 
-                } catch (IOException ex) {
-                    JOptionPane.showMessageDialog(null, ex.getMessage());
+                    //the key and the options are taken now, the files wait in the queue
+                    for (File file : chooser.getSelectedFiles())
+                        fileQueue.addEncryption(file, Main.rsa.getPublicKey(), Main.rsa.getOptions());
                 } catch (RSAException rsaE) {
                     JOptionPane.showMessageDialog(null, rsaE.geteMessage());
                 } catch (NumberFormatException chunkE) {
@@ -170,20 +211,13 @@ public class MainWindow {
         public void actionPerformed(ActionEvent e) {
             JFileChooser chooser = new JFileChooser();
             chooser.setCurrentDirectory(new java.io.File("."));
-            chooser.setDialogTitle("File to decrypt");
+            chooser.setDialogTitle("Files to decrypt");
+            chooser.setMultiSelectionEnabled(true);
 
             if (chooser.showOpenDialog(null) == JFileChooser.APPROVE_OPTION) {
-                try (OutputStream outputStream = new FileOutputStream(
-                             chooser.getSelectedFile().getPath() + "Decrypted")) {
-
-                    //read the data
-                    byte[] inputData = Files.readAllBytes(chooser.getSelectedFile().toPath());
-
-                    //encrypt and write the data
-                    Main.rsa.decryptFile(inputData).writeTo(outputStream);
-
-                } catch (IOException ex) {
-                    JOptionPane.showMessageDialog(null, ex.getMessage());
+                try {
+                    for (File file : chooser.getSelectedFiles())
+                        fileQueue.addDecryption(file, Main.rsa.getPrivateKey(), Main.rsa.getOptions());
                 } catch (RSAException rsaE) {
                     JOptionPane.showMessageDialog(null, rsaE.geteMessage());
                 }
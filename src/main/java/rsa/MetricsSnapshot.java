@@ -0,0 +1,128 @@
+package rsa;
+
+/**
+ * Values of EngineMetrics at one moment. Latencies are in nanoseconds, throughputs in MiB
+ * per second of the time spent in the encryption and decryption calls.
+ */
+public class MetricsSnapshot {
+    private final long encryptedChunks;
+    private final long decryptedChunks;
+    private final long encryptedBytes;
+    private final long decryptedBytes;
+    private final long encryptNanos;
+    private final long decryptNanos;
+    private final LatencyHistogram.Snapshot encryptChunkLatency;
+    private final LatencyHistogram.Snapshot decryptChunkLatency;
+    private final long primeCandidates;
+    private final long primeCandidatesSieved;
+    private final long primeCandidatesRejected;
+    private final LatencyHistogram.Snapshot keyGenerationLatency;
+    private final long keyPairPoolDepth;
+    private final long keyPairPoolHits;
+    private final long keyPairPoolMisses;
+    private final long keyPairPoolFailures;
+    private final long allocations;
+    private final long allocatedBytes;
+
+    MetricsSnapshot(long encryptedChunks, long decryptedChunks, long encryptedBytes, long decryptedBytes,
+                    long encryptNanos, long decryptNanos, LatencyHistogram.Snapshot encryptChunkLatency,
+                    LatencyHistogram.Snapshot decryptChunkLatency, long primeCandidates, long primeCandidatesSieved,
+                    long primeCandidatesRejected, LatencyHistogram.Snapshot keyGenerationLatency,
+                    long keyPairPoolDepth, long keyPairPoolHits, long keyPairPoolMisses, long keyPairPoolFailures,
+                    long allocations, long allocatedBytes) {
+        this.encryptedChunks = encryptedChunks;
+        this.decryptedChunks = decryptedChunks;
+        this.encryptedBytes = encryptedBytes;
+        this.decryptedBytes = decryptedBytes;
+        this.encryptNanos = encryptNanos;
+        this.decryptNanos = decryptNanos;
+        this.encryptChunkLatency = encryptChunkLatency;
+        this.decryptChunkLatency = decryptChunkLatency;
+        this.primeCandidates = primeCandidates;
+        this.primeCandidatesSieved = primeCandidatesSieved;
+        this.primeCandidatesRejected = primeCandidatesRejected;
+        this.keyGenerationLatency = keyGenerationLatency;
+        this.keyPairPoolDepth = keyPairPoolDepth;
+        this.keyPairPoolHits = keyPairPoolHits;
+        this.keyPairPoolMisses = keyPairPoolMisses;
+        this.keyPairPoolFailures = keyPairPoolFailures;
+        this.allocations = allocations;
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    public long getEncryptedChunks() {
+        return encryptedChunks;
+    }
+
+    public long getDecryptedChunks() {
+        return decryptedChunks;
+    }
+
+    public long getEncryptedBytes() {
+        return encryptedBytes;
+    }
+
+    public long getDecryptedBytes() {
+        return decryptedBytes;
+    }
+
+    public double getEncryptThroughput() {
+        return EngineMetrics.throughput(encryptedBytes, encryptNanos);
+    }
+
+    public double getDecryptThroughput() {
+        return EngineMetrics.throughput(decryptedBytes, decryptNanos);
+    }
+
+    public LatencyHistogram.Snapshot getEncryptChunkLatency() {
+        return encryptChunkLatency;
+    }
+
+    public LatencyHistogram.Snapshot getDecryptChunkLatency() {
+        return decryptChunkLatency;
+    }
+
+    public long getPrimeCandidates() {
+        return primeCandidates;
+    }
+
+    public long getPrimeCandidatesSieved() {
+        return primeCandidatesSieved;
+    }
+
+    public long getPrimeCandidatesRejected() {
+        return primeCandidatesRejected;
+    }
+
+    public long getKeyPairsGenerated() {
+        return keyGenerationLatency.getCount();
+    }
+
+    public LatencyHistogram.Snapshot getKeyGenerationLatency() {
+        return keyGenerationLatency;
+    }
+
+    public long getKeyPairPoolDepth() {
+        return keyPairPoolDepth;
+    }
+
+    public long getKeyPairPoolHits() {
+        return keyPairPoolHits;
+    }
+
+    public long getKeyPairPoolMisses() {
+        return keyPairPoolMisses;
+    }
+
+    public long getKeyPairPoolFailures() {
+        return keyPairPoolFailures;
+    }
+
+    public long getAllocations() {
+        return allocations;
+    }
+
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+}
@@ -0,0 +1,200 @@
+package rsa;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * Modular exponentiation with Montgomery reduction and a sliding window over the exponent.
+ *
+ * The Montgomery constants of the modulus and the recoded exponent are computed once,
+ * so a context is built per key and reused for every chunk of a file.
+ * The modulus has to be odd, a context is immutable and can be shared between threads.
+ * Moduli of up to LimbArithmetic.MAX_LIMBS limbs, the default 256-bit key and the CRT halves
+ * of keys up to 1024 bits, use the fixed-width arithmetic of LimbArithmetic, BigInteger otherwise.
+ */
+class MontgomeryContext {
+    //exponent bit lengths up to which the window size 1, 2, ... is used
+    private static final int[] WINDOW_THRESHOLDS = {7, 25, 81, 241, 673, 1793};
+
+    private final BigInteger modulus;
+    private final BigInteger exponent;
+    //R = 2^rBits, reducing modulo R and dividing by R are a mask and a shift
+    private final int rBits;
+    private final BigInteger rMask;
+    //nPrime = -modulus^-1 mod R
+    private final BigInteger nPrime;
+    //R^2 mod modulus converts to the Montgomery form
+    private final BigInteger rSquared;
+    //fixed-width arithmetic of a small modulus, null when the modulus does not fit
+    private final LimbArithmetic limbs;
+
+    private final int windowSize;
+    //the exponent recoded from its most significant bit into odd windows: before multiplying
+    //by the precomputed odd power windowValues[i] the result is squared windowShifts[i] times,
+    //after the last window it is squared trailingShift times
+    private final int[] windowValues;
+    private final int[] windowShifts;
+    private final int trailingShift;
+
+    MontgomeryContext(BigInteger modulus, BigInteger exponent) {
+        this(modulus, exponent, null, null);
+    }
+
+    MontgomeryContext(BigInteger modulus, BigInteger exponent, BigInteger nPrime, BigInteger rSquared) {
+        if (!modulus.testBit(0) || modulus.compareTo(BigInteger.ONE) <= 0)
+            throw new IllegalArgumentException("Montgomery reduction needs an odd modulus greater than 1.");
+        if (exponent.signum() < 0)
+            throw new IllegalArgumentException("Negative exponent.");
+
+        this.modulus = modulus;
+        this.exponent = exponent;
+
+        rBits = modulus.bitLength();
+        BigInteger r = BigInteger.ONE.shiftLeft(rBits);
+        rMask = r.subtract(BigInteger.ONE);
+        //the constants of the modulus may be precomputed, e.g. stored by a Keyring
+        if (nPrime == null || rSquared == null) {
+            nPrime = r.subtract(RSA.modInverse(modulus, r));
+            BigInteger rModN = r.mod(modulus);
+            rSquared = rModN.multiply(rModN).mod(modulus);
+        }
+        this.nPrime = nPrime;
+        this.rSquared = rSquared;
+        limbs = LimbArithmetic.fits(modulus) ? new LimbArithmetic(modulus, rBits, nPrime, rSquared) : null;
+
+        int bitLength = exponent.bitLength();
+        int size = 1;
+        while (size <= WINDOW_THRESHOLDS.length && bitLength > WINDOW_THRESHOLDS[size - 1])
+            size++;
+        windowSize = size;
+
+        //recode the exponent, there are at most as many windows as set bits
+        int[] values = new int[exponent.bitCount()];
+        int[] shifts = new int[values.length];
+        int windows = 0;
+        int shift = 0;
+
+        for (int i = bitLength - 1; i >= 0; ) {
+            if (!exponent.testBit(i)) {
+                shift++;
+                i--;
+                continue;
+            }
+
+            //the longest window of at most windowSize bits ending with a set bit
+            int j = Math.max(i - windowSize + 1, 0);
+            while (!exponent.testBit(j))
+                j++;
+
+            int value = 0;
+            for (int k = i; k >= j; k--)
+                value = (value << 1) | (exponent.testBit(k) ? 1 : 0);
+
+            values[windows] = value;
+            shifts[windows] = shift + (i - j + 1);
+            windows++;
+            shift = 0;
+            i = j - 1;
+        }
+
+        windowValues = Arrays.copyOf(values, windows);
+        windowShifts = Arrays.copyOf(shifts, windows);
+        trailingShift = shift;
+    }
+
+    BigInteger getModulus() {
+        return modulus;
+    }
+
+    BigInteger getExponent() {
+        return exponent;
+    }
+
+    BigInteger getNPrime() {
+        return nPrime;
+    }
+
+    BigInteger getRSquared() {
+        return rSquared;
+    }
+
+    BigInteger modPow(BigInteger base) {
+        if (base.signum() < 0 || base.compareTo(modulus) >= 0)
+            base = base.mod(modulus);
+
+        //base^0, the modulus is greater than 1
+        if (windowValues.length == 0)
+            return BigInteger.ONE;
+        if (limbs != null)
+            return limbModPow(base);
+
+        //odd powers base^1, base^3, ..., base^(2^windowSize - 1) in the Montgomery form
+        BigInteger montBase = toMontgomery(base);
+        BigInteger[] oddPowers = new BigInteger[1 << (windowSize - 1)];
+        oddPowers[0] = montBase;
+        if (oddPowers.length > 1) {
+            BigInteger montBaseSquared = multiply(montBase, montBase);
+            for (int i = 1; i < oddPowers.length; i++)
+                oddPowers[i] = multiply(oddPowers[i - 1], montBaseSquared);
+        }
+
+        //the squarings before the first window would only square the one
+        BigInteger result = oddPowers[windowValues[0] >>> 1];
+        for (int i = 1; i < windowValues.length; i++) {
+            for (int k = 0; k < windowShifts[i]; k++)
+                result = multiply(result, result);
+            result = multiply(result, oddPowers[windowValues[i] >>> 1]);
+        }
+        for (int k = 0; k < trailingShift; k++)
+            result = multiply(result, result);
+
+        return reduce(result);
+    }
+
+    private BigInteger limbModPow(BigInteger base) {
+        //the same windows over the fixed-width numbers, allocated once per exponentiation
+        long[] scratch = limbs.newScratch();
+        long[][] oddPowers = new long[1 << (windowSize - 1)][];
+        for (int i = 0; i < oddPowers.length; i++)
+            oddPowers[i] = limbs.newNumber();
+
+        limbs.toMontgomery(LimbArithmetic.toLimbs(base, limbs.getLimbs()), oddPowers[0], scratch);
+        if (oddPowers.length > 1) {
+            long[] montBaseSquared = limbs.newNumber();
+            limbs.square(oddPowers[0], montBaseSquared, scratch);
+            for (int i = 1; i < oddPowers.length; i++)
+                limbs.multiply(oddPowers[i - 1], montBaseSquared, oddPowers[i], scratch);
+        }
+
+        //the squarings and multiplications write over the result
+        long[] result = oddPowers[windowValues[0] >>> 1].clone();
+        for (int i = 1; i < windowValues.length; i++) {
+            for (int k = 0; k < windowShifts[i]; k++)
+                limbs.square(result, result, scratch);
+            limbs.multiply(result, oddPowers[windowValues[i] >>> 1], result, scratch);
+        }
+        for (int k = 0; k < trailingShift; k++)
+            limbs.square(result, result, scratch);
+
+        limbs.fromMontgomery(result, result, scratch);
+        return LimbArithmetic.toBigInteger(result);
+    }
+
+    private BigInteger toMontgomery(BigInteger x) {
+        //x * R mod modulus
+        return multiply(x, rSquared);
+    }
+
+    private BigInteger multiply(BigInteger a, BigInteger b) {
+        return reduce(a.multiply(b));
+    }
+
+    private BigInteger reduce(BigInteger t) {
+        //Montgomery reduction, t * R^-1 mod modulus without a division
+        //https://en.wikipedia.org/wiki/Montgomery_modular_multiplication
+        BigInteger m = t.and(rMask).multiply(nPrime).and(rMask);
+        BigInteger result = t.add(m.multiply(modulus)).shiftRight(rBits);
+
+        return result.compareTo(modulus) >= 0 ? result.subtract(modulus) : result;
+    }
+}
@@ -0,0 +1,257 @@
+package rsa;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.UnaryOperator;
+
+/**
+ * Dense bit-packed chunks of the streamed format, see CipherHeader.FLAG_PACKED.
+ *
+ * A plain text block takes keySize - 1 bits (the most a number below n always has) and a cypher text
+ * block exactly keySize bits, with no padding to whole bytes. Eight blocks make a group, which is
+ * keySize - 1 bytes of plain text and keySize bytes of cypher text, so the groups are whole bytes
+ * and take the place of the chunks. The last group carries the remaining plain text, a 0x80 marker
+ * byte and zeros like the last chunk, but only in as many blocks as these need; its cypher text
+ * is padded to a whole byte, the block count follows from its length.
+ * The blocks of a group are processed one after another, the groups may run in parallel.
+ */
+class PackedCodec {
+    static final int GROUP_BLOCKS = Byte.SIZE;
+    private static final byte PADDING_MARKER = (byte) 0x80;
+
+    private final int blockBits;
+    private final int encBlockBits;
+
+    PackedCodec(int keySize) {
+        blockBits = keySize - 1;
+        encBlockBits = keySize;
+    }
+
+    int getGroupSize() {
+        return blockBits;
+    }
+
+    int getEncGroupSize() {
+        return encBlockBits;
+    }
+
+    int getEncLastGroupSize(int remaining) {
+        return bytes(lastGroupBlocks(remaining) * encBlockBits);
+    }
+
+    int getEncLastGroupSize(long cypherTextLength) {
+        //the last group takes the bytes after the full groups, from 1 to encGroupSize of them
+        return (int) (cypherTextLength - (cypherTextLength - 1) / encBlockBits * encBlockBits);
+    }
+
+    private int lastGroupBlocks(int remaining) {
+        //the remaining bytes and the marker byte
+        return (Byte.SIZE * (remaining + 1) + blockBits - 1) / blockBits;
+    }
+
+    void encryptGroup(UnaryOperator<BigInteger> encryption, byte[] src, int offset, byte[] dest, int destOffset) {
+        BigInteger[] blocks = read(src, offset, GROUP_BLOCKS, blockBits);
+        for (int i = 0; i < GROUP_BLOCKS; i++)
+            blocks[i] = encryption.apply(blocks[i]);
+        write(blocks, GROUP_BLOCKS, encBlockBits, dest, destOffset);
+    }
+
+    void encryptGroup(UnaryOperator<BigInteger> encryption, ByteBuffer src, int offset,
+                      ByteBuffer dest, int destOffset) {
+        //a mapped buffer cannot back a BigInteger, the group is copied
+        byte[] group = new byte[encBlockBits];
+        src.get(offset, group, 0, blockBits);
+        encryptGroup(encryption, group, 0, group, 0);
+        dest.put(destOffset, group, 0, encBlockBits);
+    }
+
+    int encryptLastGroup(UnaryOperator<BigInteger> encryption, byte[] src, int offset, int remaining,
+                         byte[] dest, int destOffset) {
+        //returns the number of cypher text bytes written, remaining is below the group size
+        int blockCount = lastGroupBlocks(remaining);
+        BigInteger[] blocks = read(pad(src, offset, remaining), 0, blockCount, blockBits);
+        for (int i = 0; i < blockCount; i++)
+            blocks[i] = encryption.apply(blocks[i]);
+
+        return write(blocks, blockCount, encBlockBits, dest, destOffset);
+    }
+
+    boolean decryptGroup(UnaryOperator<BigInteger> decryption, byte[] src, int offset, byte[] dest, int destOffset) {
+        //false if a block does not fit its bits, the key is wrong or the cypher text corrupted
+        BigInteger[] blocks = read(src, offset, GROUP_BLOCKS, encBlockBits);
+        if (!decrypt(decryption, blocks, GROUP_BLOCKS))
+            return false;
+
+        write(blocks, GROUP_BLOCKS, blockBits, dest, destOffset);
+        return true;
+    }
+
+    boolean decryptGroup(UnaryOperator<BigInteger> decryption, ByteBuffer src, int offset,
+                         ByteBuffer dest, int destOffset) {
+        byte[] group = new byte[encBlockBits];
+        src.get(offset, group, 0, encBlockBits);
+        if (!decryptGroup(decryption, group, 0, group, 0))
+            return false;
+
+        dest.put(destOffset, group, 0, blockBits);
+        return true;
+    }
+
+    int decryptLastGroup(UnaryOperator<BigInteger> decryption, byte[] src, int offset, int length,
+                         byte[] dest, int destOffset) {
+        //returns the number of plain text bytes carried by the last group, -1 if the group is malformed
+        int blockCount = Byte.SIZE * length / encBlockBits;
+        if (blockCount < 1 || blockCount > GROUP_BLOCKS || bytes(blockCount * encBlockBits) != length)
+            return -1;
+
+        BigInteger[] blocks = read(src, offset, blockCount, encBlockBits);
+        if (!decrypt(decryption, blocks, blockCount))
+            return -1;
+
+        return unpad(blocks, 0, blockCount, dest, destOffset);
+    }
+
+    BigInteger[] readPlainText(byte[] src, int offset, int length) {
+        //all the blocks of a plain text at once, the full groups and the padded last group,
+        //for a caller which exponentiates them together (e.g. in the batches of EncryptionService)
+        int groups = length / blockBits;
+        int remaining = length % blockBits;
+        BigInteger[] blocks = new BigInteger[groups * GROUP_BLOCKS + lastGroupBlocks(remaining)];
+        for (int i = 0; i < groups; i++)
+            read(src, offset + i * blockBits, blocks, i * GROUP_BLOCKS, GROUP_BLOCKS, blockBits);
+        read(pad(src, offset + groups * blockBits, remaining), 0, blocks, groups * GROUP_BLOCKS,
+                blocks.length - groups * GROUP_BLOCKS, blockBits);
+
+        return blocks;
+    }
+
+    int getEncLength(int length) {
+        return length / blockBits * encBlockBits + getEncLastGroupSize(length % blockBits);
+    }
+
+    void writeCypherText(BigInteger[] blocks, byte[] dest, int offset) {
+        //the encrypted blocks of readPlainText, getEncLength bytes; the last group has one block at least
+        int groups = (blocks.length - 1) / GROUP_BLOCKS;
+        for (int i = 0; i < groups; i++)
+            write(blocks, i * GROUP_BLOCKS, GROUP_BLOCKS, encBlockBits, dest, offset + i * encBlockBits);
+        write(blocks, groups * GROUP_BLOCKS, blocks.length - groups * GROUP_BLOCKS, encBlockBits, dest,
+                offset + groups * encBlockBits);
+    }
+
+    BigInteger[] readCypherText(byte[] src, int offset, int length) {
+        //all the blocks of a cypher text at once, null if the length cannot be the one of packed blocks
+        int lastLength = getEncLastGroupSize((long) length);
+        int lastBlocks = Byte.SIZE * lastLength / encBlockBits;
+        if (length == 0 || lastBlocks < 1 || bytes(lastBlocks * encBlockBits) != lastLength)
+            return null;
+
+        int groups = (length - lastLength) / encBlockBits;
+        BigInteger[] blocks = new BigInteger[groups * GROUP_BLOCKS + lastBlocks];
+        for (int i = 0; i < groups; i++)
+            read(src, offset + i * encBlockBits, blocks, i * GROUP_BLOCKS, GROUP_BLOCKS, encBlockBits);
+        read(src, offset + groups * encBlockBits, blocks, groups * GROUP_BLOCKS, lastBlocks, encBlockBits);
+
+        return blocks;
+    }
+
+    int getPlainTextCapacity(BigInteger[] blocks) {
+        //the plain text of writePlainText is at most this long
+        return ((blocks.length - 1) / GROUP_BLOCKS + 1) * blockBits;
+    }
+
+    int writePlainText(BigInteger[] blocks, byte[] dest, int offset) {
+        //the decrypted blocks of readCypherText, returns the length of the plain text,
+        //-1 if a block does not fit its bits or the padding is missing
+        for (BigInteger block : blocks)
+            if (block.bitLength() > blockBits)
+                return -1;
+
+        int groups = (blocks.length - 1) / GROUP_BLOCKS;
+        for (int i = 0; i < groups; i++)
+            write(blocks, i * GROUP_BLOCKS, GROUP_BLOCKS, blockBits, dest, offset + i * blockBits);
+
+        int remaining = unpad(blocks, groups * GROUP_BLOCKS, blocks.length - groups * GROUP_BLOCKS, dest,
+                offset + groups * blockBits);
+        return remaining < 0 ? -1 : groups * blockBits + remaining;
+    }
+
+    private byte[] pad(byte[] src, int offset, int remaining) {
+        //the remaining bytes, the marker and zeros
+        byte[] group = new byte[blockBits];
+        System.arraycopy(src, offset, group, 0, remaining);
+        group[remaining] = PADDING_MARKER;
+
+        return group;
+    }
+
+    private int unpad(BigInteger[] blocks, int from, int blockCount, byte[] dest, int destOffset) {
+        //the blocks hold at least the remaining bytes and the marker, the bits of a partial byte are zeros
+        byte[] group = new byte[bytes(blockCount * blockBits)];
+        write(blocks, from, blockCount, blockBits, group, 0);
+
+        int remaining = blockCount * blockBits / Byte.SIZE - 1;
+        while (remaining > 0 && group[remaining] == 0)
+            remaining--;
+        if (group[remaining] != PADDING_MARKER)
+            return -1;
+
+        System.arraycopy(group, 0, dest, destOffset, remaining);
+        return remaining;
+    }
+
+    private boolean decrypt(UnaryOperator<BigInteger> decryption, BigInteger[] blocks, int blockCount) {
+        for (int i = 0; i < blockCount; i++) {
+            blocks[i] = decryption.apply(blocks[i]);
+            if (blocks[i].bitLength() > blockBits)
+                return false;
+        }
+
+        return true;
+    }
+
+    private static BigInteger[] read(byte[] src, int offset, int blockCount, int bits) {
+        BigInteger[] blocks = new BigInteger[blockCount];
+        read(src, offset, blocks, 0, blockCount, bits);
+
+        return blocks;
+    }
+
+    private static void read(byte[] src, int offset, BigInteger[] blocks, int from, int blockCount, int bits) {
+        //the blocks follow each other from the most significant bit of the first byte
+        int length = bytes(blockCount * bits);
+        BigInteger packed = new BigInteger(1, src, offset, length);
+        BigInteger mask = BigInteger.ONE.shiftLeft(bits).subtract(BigInteger.ONE);
+
+        int unused = Byte.SIZE * length - blockCount * bits;
+        for (int i = 0; i < blockCount; i++)
+            blocks[from + i] = packed.shiftRight(unused + (blockCount - 1 - i) * bits).and(mask);
+    }
+
+    private static int write(BigInteger[] blocks, int blockCount, int bits, byte[] dest, int offset) {
+        return write(blocks, 0, blockCount, bits, dest, offset);
+    }
+
+    private static int write(BigInteger[] blocks, int from, int blockCount, int bits, byte[] dest, int offset) {
+        //returns the number of bytes written, the bits after the last block are zeros
+        BigInteger packed = BigInteger.ZERO;
+        for (int i = 0; i < blockCount; i++)
+            packed = packed.shiftLeft(bits).or(blocks[from + i]);
+
+        int length = bytes(blockCount * bits);
+        packed = packed.shiftLeft(Byte.SIZE * length - blockCount * bits);
+
+        //right-align the group in its bytes, like ChunkCodec.writeChunk
+        byte[] group = packed.toByteArray();
+        int start = Math.max(0, group.length - length);
+        int count = group.length - start;
+        Arrays.fill(dest, offset, offset + length - count, (byte) 0);
+        System.arraycopy(group, start, dest, offset + length - count, count);
+
+        return length;
+    }
+
+    private static int bytes(int bits) {
+        return (bits + Byte.SIZE - 1) / Byte.SIZE;
+    }
+}
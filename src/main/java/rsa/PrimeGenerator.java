@@ -0,0 +1,267 @@
+package rsa;
+
+import exceptions.RSAException;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Generates random primes of an exact bit length.
+ *
+ * Every worker takes a random odd start and walks consecutive odd candidates. A sieve
+ * of small primes removes most of them with int arithmetic only, the rest goes through
+ * Miller-Rabin with as many rounds as the error bound for the bit length requires.
+ * The workers run in parallel and several primes (p and q) are searched for at once.
+ */
+class PrimeGenerator {
+    //odd candidates sieved at once
+    private static final int SIEVE_SIZE = 4096;
+    private static final int SMALL_PRIME_LIMIT = 2048;
+    //smaller primes could be equal to one of the small primes used by the sieve
+    private static final int MIN_BIT_LENGTH = 16;
+    private static final int[] SMALL_PRIMES = smallPrimes(SMALL_PRIME_LIMIT);
+    //Miller-Rabin rounds keeping the error probability for random candidates below 2^-80,
+    //Handbook of Applied Cryptography, table 4.4
+    private static final int[][] ROUNDS = {
+            {1300, 2}, {850, 3}, {650, 4}, {550, 5}, {450, 6}, {400, 7}, {350, 8},
+            {300, 9}, {250, 12}, {200, 15}, {150, 18}, {100, 27}};
+    private static final int MAX_ROUNDS = 40;
+
+    private final int parallelism;
+    private final ExecutorService workers;
+
+    PrimeGenerator(int parallelism) {
+        this.parallelism = parallelism;
+        workers = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "prime-generator");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    BigInteger generatePrime(int bitLength) throws RSAException {
+        return generatePrimes(1, bitLength)[0];
+    }
+
+    BigInteger[] generatePrimes(int count, int bitLength) throws RSAException {
+        if (bitLength < MIN_BIT_LENGTH)
+            throw new RSAException("Primes need at least " + MIN_BIT_LENGTH + " bits.");
+
+        BlockingQueue<BigInteger> found = new LinkedBlockingQueue<>();
+        AtomicBoolean stop = new AtomicBoolean();
+        for (int i = 0; i < parallelism; i++)
+            workers.execute(() -> search(bitLength, found, stop));
+
+        List<BigInteger> primes = new ArrayList<>(count);
+        try {
+            while (primes.size() < count) {
+                BigInteger prime = found.take();
+                if (!primes.contains(prime))
+                    primes.add(prime);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RSAException("Prime generation was interrupted.");
+        } finally {
+            stop.set(true);
+        }
+
+        return primes.toArray(new BigInteger[0]);
+    }
+
+    private static void search(int bitLength, BlockingQueue<BigInteger> found, AtomicBoolean stop) {
+        Random rnd = new SecureRandom();
+
+        //a new random start after every prime, so p and q are never close to each other
+        while (!stop.get()) {
+            BigInteger prime = searchFrom(randomStart(bitLength, rnd), bitLength, rnd, stop);
+            if (prime != null)
+                found.add(prime);
+        }
+    }
+
+    private static BigInteger randomStart(int bitLength, Random rnd) {
+        //the two top bits are set, so the product of two such primes has exactly 2 * bitLength bits
+        return new BigInteger(bitLength, rnd)
+                .setBit(bitLength - 1)
+                .setBit(bitLength - 2)
+                .setBit(0);
+    }
+
+    private static BigInteger searchFrom(BigInteger start, int bitLength, Random rnd, AtomicBoolean stop) {
+        //residues of the start modulo the small primes, updated incrementally from window to window
+        int[] residues = new int[SMALL_PRIMES.length];
+        for (int i = 0; i < SMALL_PRIMES.length; i++)
+            residues[i] = start.mod(BigInteger.valueOf(SMALL_PRIMES[i])).intValue();
+
+        boolean[] composite = new boolean[SIEVE_SIZE];
+        int rounds = millerRabinRounds(bitLength);
+        //candidates walked, removed by the sieve and rejected by Miller-Rabin, reported once per search
+        long candidates = 0;
+        long sieved = 0;
+        long rejected = 0;
+
+        try {
+            while (!stop.get()) {
+                //candidate k is start + 2k, it is divisible by the prime when residue + 2k = 0 (mod prime)
+                Arrays.fill(composite, false);
+                for (int i = 0; i < SMALL_PRIMES.length; i++) {
+                    int prime = SMALL_PRIMES[i];
+                    int first = (int) ((long) (prime - residues[i]) % prime * ((prime + 1) / 2) % prime);
+                    for (int k = first; k < SIEVE_SIZE; k += prime)
+                        composite[k] = true;
+                }
+
+                for (int k = 0; k < SIEVE_SIZE && !stop.get(); k++) {
+                    candidates++;
+                    if (composite[k]) {
+                        sieved++;
+                        continue;
+                    }
+
+                    BigInteger candidate = start.add(BigInteger.valueOf(2L * k));
+                    if (candidate.bitLength() != bitLength)
+                        return null;
+                    if (isProbablePrime(candidate, rounds, rnd))
+                        return candidate;
+                    rejected++;
+                }
+
+                start = start.add(BigInteger.valueOf(2L * SIEVE_SIZE));
+                for (int i = 0; i < SMALL_PRIMES.length; i++)
+                    residues[i] = (int) ((residues[i] + 2L * SIEVE_SIZE) % SMALL_PRIMES[i]);
+            }
+        } finally {
+            EngineMetrics.get().recordPrimeCandidates(candidates, sieved, rejected);
+        }
+
+        return null;
+    }
+
+    static int millerRabinRounds(int bitLength) {
+        for (int[] rounds : ROUNDS)
+            if (bitLength >= rounds[0])
+                return rounds[1];
+
+        return MAX_ROUNDS;
+    }
+
+    static boolean isProbablePrime(BigInteger n, int rounds, Random rnd) {
+        //Miller-Rabin, n is odd and greater than 3
+        //https://en.wikipedia.org/wiki/Miller%E2%80%93Rabin_primality_test
+        BigInteger nMinusOne = n.subtract(BigInteger.ONE);
+        int s = nMinusOne.getLowestSetBit();
+        MontgomeryContext context = new MontgomeryContext(n, nMinusOne.shiftRight(s));
+        BigInteger nMinusThree = n.subtract(BigInteger.valueOf(3));
+
+        witnesses:
+        for (int i = 0; i < rounds; i++) {
+            //a random witness from [2, n - 2]
+            BigInteger a;
+            do
+                a = new BigInteger(n.bitLength(), rnd);
+            while (a.compareTo(nMinusThree) > 0);
+            a = a.add(BigInteger.TWO);
+
+            BigInteger x = context.modPow(a);
+            if (x.equals(BigInteger.ONE) || x.equals(nMinusOne))
+                continue;
+
+            for (int r = 1; r < s; r++) {
+                x = x.multiply(x).mod(n);
+                if (x.equals(nMinusOne))
+                    continue witnesses;
+                if (x.equals(BigInteger.ONE))
+                    return false;
+            }
+
+            return false;
+        }
+
+        return true;
+    }
+
+    static int jacobi(BigInteger a, BigInteger n) {
+        //iterative binary algorithm, the signs depend only on the lowest bits, so they are read
+        //from an int, and the loop switches to long arithmetic once both numbers fit
+        //https://en.wikipedia.org/wiki/Jacobi_symbol#Calculating_the_Jacobi_symbol
+        if (n.signum() <= 0 || !n.testBit(0))
+            throw new IllegalArgumentException("The Jacobi symbol needs an odd positive n.");
+
+        a = a.mod(n);
+        if (n.bitLength() >= Long.SIZE && LimbArithmetic.fits(n)) {
+            //e.g. the 128-bit primes of the default key, in place on mutable limbs
+            int limbs = LimbArithmetic.limbCount(n);
+            return LimbArithmetic.jacobi(LimbArithmetic.toLimbs(a, limbs), LimbArithmetic.toLimbs(n, limbs));
+        }
+
+        int result = 1;
+        while (a.signum() != 0 && n.bitLength() >= Long.SIZE) {
+            int zeros = a.getLowestSetBit();
+            a = a.shiftRight(zeros);
+            int nMod8 = n.intValue() & 7;
+            if ((zeros & 1) == 1 && (nMod8 == 3 || nMod8 == 5))
+                result = -result;
+            if ((a.intValue() & 3) == 3 && (nMod8 & 3) == 3)
+                result = -result;
+
+            BigInteger tmp = a;
+            a = n.mod(a);
+            n = tmp;
+        }
+
+        if (a.signum() == 0)
+            return n.equals(BigInteger.ONE) ? result : 0;
+
+        return result * jacobi(a.longValue(), n.longValue());
+    }
+
+    static int jacobi(long a, long n) {
+        //both numbers are non-negative and n is odd
+        a %= n;
+        int result = 1;
+
+        while (a != 0) {
+            int zeros = Long.numberOfTrailingZeros(a);
+            a >>>= zeros;
+            int nMod8 = (int) (n & 7);
+            if ((zeros & 1) == 1 && (nMod8 == 3 || nMod8 == 5))
+                result = -result;
+            if ((a & 3) == 3 && (nMod8 & 3) == 3)
+                result = -result;
+
+            long tmp = a;
+            a = n % a;
+            n = tmp;
+        }
+
+        return n == 1 ? result : 0;
+    }
+
+    private static int[] smallPrimes(int limit) {
+        //sieve of Eratosthenes, 2 is left out since the candidates are odd
+        boolean[] composite = new boolean[limit];
+        int[] primes = new int[limit];
+        int count = 0;
+
+        for (int i = 3; i < limit; i += 2) {
+            if (composite[i])
+                continue;
+
+            primes[count++] = i;
+            for (int j = i * i; j < limit; j += 2 * i)
+                composite[j] = true;
+        }
+
+        return Arrays.copyOf(primes, count);
+    }
+}
@@ -0,0 +1,474 @@
+package rsa;
+
+import exceptions.RSAException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.logging.FileHandler;
+
+/**
+ * Created by marek on 3/11/16.
+ */
+public class RSA {
+    static final int MIN_CHUNK_SIZE = 1;
+    private static final int BIT_LENGTH_128 = 128;
+    private static final int BIT_LENGTH_16 = 16;
+    //bit lengths of the modulus n
+    static final int DEFAULT_KEY_SIZE = 2 * BIT_LENGTH_128;
+    private static final int MIN_LARGE_KEY_SIZE = 1024;
+    private static final int MAX_KEY_SIZE = 4096;
+    private static final int PROBABILITY = 100;
+    private static final BigInteger TWO = BigInteger.valueOf(2);
+    private static final BigInteger MINUS_ONE = BigInteger.valueOf(-1);
+    private static final PrimeGenerator PRIME_GENERATOR =
+            new PrimeGenerator(Runtime.getRuntime().availableProcessors());
+    //shared by all the instances, it keeps no per-call state
+    private static final RSACipher CIPHER = new RSACipher();
+    private BigInteger p, q, n, e, d, c;
+    //CRT components of the private key, null when only (n, d) is known
+    private BigInteger dP, dQ, qInv;
+    private static final Random rnd = new Random();
+    private int chunkSize = 16;
+    //RSA encrypts only a session key, the data is encrypted by AES-GCM
+    private boolean hybrid = false;
+    //the plain text is deflated before encryption when it compresses
+    private boolean compressed = false;
+    //the blocks are bit-packed at the largest size the key allows, the chunk size is not used
+    private boolean packed = true;
+    //number of threads encrypting/decrypting the chunks, 1 means sequential processing
+    private int parallelism = 1;
+    //pre-generated key pairs handed out by createKeyPair, none by default
+    private volatile KeyPairPool keyPairPool;
+
+    public int getEncChunkSize() {
+        return getEncChunkSize(n == null ? DEFAULT_KEY_SIZE : n.bitLength());
+    }
+
+    public int getMinChunkSize() {
+        return MIN_CHUNK_SIZE;
+    }
+
+    public int getMaxChunkSize() {
+        return getMaxChunkSize(n == null ? DEFAULT_KEY_SIZE : n.bitLength());
+    }
+
+    protected static int getEncChunkSize(int keySize) {
+        //any number below n fits
+        return (keySize + 7) / 8;
+    }
+
+    protected static int getMaxChunkSize(int keySize) {
+        //the chunk has to stay below n, so it gets one bit less than n
+        return (keySize - 1) / 8;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public boolean isHybrid() {
+        return hybrid;
+    }
+
+    public void setHybrid(boolean hybrid) {
+        this.hybrid = hybrid;
+    }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    public void setCompressed(boolean compressed) {
+        this.compressed = compressed;
+    }
+
+    public boolean isPacked() {
+        return packed;
+    }
+
+    public void setPacked(boolean packed) {
+        this.packed = packed;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) throws RSAException {
+        if (parallelism < 1)
+            throw new RSAException("Parallelism must be at least 1.");
+
+        this.parallelism = parallelism;
+    }
+
+    public KeyPairPool getKeyPairPool() {
+        return keyPairPool;
+    }
+
+    public void setKeyPairPool(KeyPairPool keyPairPool) {
+        this.keyPairPool = keyPairPool;
+    }
+
+    public RSA() {
+
+    }
+
+    public String getN() throws RSAException {
+        if (n == null)
+            throw new RSAException("Sorry, no modulus set.");
+        else
+            return n.toString();
+    }
+
+    public String getE() throws RSAException {
+        if (e == null)
+            throw new RSAException("Sorry, no public exponent set.");
+        else
+            return e.toString();
+    }
+
+    public String getD() throws RSAException {
+        if (d == null)
+            throw new RSAException("Sorry, no private exponent set.");
+        else
+            return d.toString();
+    }
+
+    public String getP() throws RSAException {
+        if (p == null)
+            throw new RSAException("Sorry, no prime p set.");
+        else
+            return p.toString();
+    }
+
+    public String getQ() throws RSAException {
+        if (q == null)
+            throw new RSAException("Sorry, no prime q set.");
+        else
+            return q.toString();
+    }
+
+    public String getDP() throws RSAException {
+        if (dP == null)
+            throw new RSAException("Sorry, no CRT exponent dP set.");
+        else
+            return dP.toString();
+    }
+
+    public String getDQ() throws RSAException {
+        if (dQ == null)
+            throw new RSAException("Sorry, no CRT exponent dQ set.");
+        else
+            return dQ.toString();
+    }
+
+    public String getQInv() throws RSAException {
+        if (qInv == null)
+            throw new RSAException("Sorry, no CRT coefficient qInv set.");
+        else
+            return qInv.toString();
+    }
+
+    public boolean hasCrtComponents() {
+        return p != null && q != null && dP != null && dQ != null && qInv != null;
+    }
+
+    public void setN(BigInteger n) {
+        //the CRT components belong to the old modulus
+        clearCrtComponents();
+        this.n = n;
+    }
+
+    public void setE(BigInteger e) {
+        this.e = e;
+    }
+
+    public void setD(BigInteger d) {
+        clearCrtComponents();
+        this.d = d;
+    }
+
+    public void setCrtComponents(BigInteger p, BigInteger q, BigInteger dP, BigInteger dQ, BigInteger qInv) {
+        this.p = p;
+        this.q = q;
+        this.dP = dP;
+        this.dQ = dQ;
+        this.qInv = qInv;
+    }
+
+    public void setPublicKey(RSAPublicKey publicKey) {
+        setN(publicKey.getN());
+        setE(publicKey.getE());
+    }
+
+    public void setPrivateKey(RSAPrivateKey privateKey) {
+        setN(privateKey.getN());
+        setD(privateKey.getD());
+        setCrtComponents(privateKey.getP(), privateKey.getQ(), privateKey.getDP(), privateKey.getDQ(),
+                privateKey.getQInv());
+    }
+
+    private void clearCrtComponents() {
+        setCrtComponents(null, null, null, null, null);
+    }
+
+    protected static BigInteger gcd(BigInteger a, BigInteger b) {
+        //non-recursive implementation of the Euclidean algorithm
+        while (b.compareTo(BigInteger.ZERO) != 0) {
+            BigInteger tmp = a;
+            a = b;
+            b = tmp.mod(b);
+        }
+
+        return a;
+    }
+
+    protected static BigInteger getOddBigInteger(int numBits) {
+        BigInteger oddBigInteger;
+
+        do
+            oddBigInteger = new BigInteger(numBits, rnd);
+        while (oddBigInteger.bitLength() != numBits || isEven(oddBigInteger));
+
+        return oddBigInteger;
+    }
+
+    protected static boolean isEven(BigInteger n) {
+        return n.mod(TWO).compareTo(BigInteger.ZERO) == 0;
+    }
+
+    protected static BigInteger getLessBigInteger(BigInteger n) {
+        BigInteger lessBigInteger;
+
+        do
+            lessBigInteger = new BigInteger(n.bitLength(), rnd);
+        while (lessBigInteger.compareTo(n) > 0);
+
+        return lessBigInteger;
+    }
+
+    protected static BigInteger getPrime(int bitLength) {
+        //uses a method explained and suggested by authors of RSA in the original RSA article
+        //http://people.csail.mit.edu/rivest/Rsapaper.pdf
+
+        BigInteger b = getOddBigInteger(bitLength);
+        //a^((b-1)/2) mod b is computed for every a, the context is rebuilt only for a new b
+        MontgomeryContext context = jacobiContext(b);
+        long candidates = 1;
+
+        for (int k = 1; k <= PROBABILITY; k++) {
+            BigInteger a = getLessBigInteger(b);
+
+            if (gcd(a, b).compareTo(BigInteger.ONE) != 0
+                    || jacobi(a, b).compareTo(jacobiRightHandSide(a, b, context)) != 0) {
+                b = getOddBigInteger(bitLength);
+                context = jacobiContext(b);
+                k = 1;
+                candidates++;
+            }
+        }
+
+        //every candidate but the last one was rejected, none is sieved here
+        EngineMetrics.get().recordPrimeCandidates(candidates, 0, candidates - 1);
+        return b;
+    }
+
+    protected static BigInteger modInverse(BigInteger a, BigInteger n) {
+        //implements the extended Euclidean algorithm
+        //https://en.wikipedia.org/wiki/Extended_Euclidean_algorithm
+
+        BigInteger t = BigInteger.valueOf(0);   BigInteger r = n;
+        BigInteger newT = BigInteger.ONE;       BigInteger newR = a;
+
+        while (newR.compareTo(BigInteger.ZERO) != 0) {
+            BigInteger quotient = r.divide(newR);
+
+            BigInteger tmpT = newT;
+            newT = t.subtract(quotient.multiply(newT));
+            t = tmpT;
+
+            BigInteger tmpR = newR;
+            newR = r.subtract(quotient.multiply(newR));
+            r = tmpR;
+        }
+
+        if (t.compareTo(BigInteger.ZERO) < 0)
+            t = t.add(n);
+
+        return t;
+    }
+
+    protected static BigInteger modPow(BigInteger base, BigInteger exponent, BigInteger m) {
+        //uses fast modular exponentiation explained here:
+        //https://www.khanacademy.org/computing/computer-science/cryptography/modarithmetic/a/fast-modular-exponentiation
+        //https://wisp.wikispaces.com/file/view/modpow.c
+
+        BigInteger result = BigInteger.valueOf(1);
+
+        while (exponent.compareTo(BigInteger.ZERO) > 0) {
+            if (exponent.testBit(0)) {
+                result = result.multiply(base).mod(m);
+            }
+            base = base.multiply(base).mod(m);
+            exponent = exponent.shiftRight(1);
+        }
+
+        return result;
+    }
+
+    protected static BigInteger jacobi(BigInteger a, BigInteger b) {
+        return BigInteger.valueOf(PrimeGenerator.jacobi(a, b));
+    }
+
+    protected static BigInteger jacobiRightHandSide(BigInteger a, BigInteger b) {
+        return jacobiRightHandSide(a, b, jacobiContext(b));
+    }
+
+    protected static MontgomeryContext jacobiContext(BigInteger b) {
+        return new MontgomeryContext(b, b.subtract(BigInteger.ONE).divide(TWO));
+    }
+
+    protected static BigInteger jacobiRightHandSide(BigInteger a, BigInteger b, MontgomeryContext context) {
+        //a^((b-1)/2) mod b
+        BigInteger result = context.modPow(a);
+        if (result.compareTo(BigInteger.ONE) == 0)
+            return BigInteger.ONE;
+        else if (result.compareTo(b.subtract(BigInteger.ONE)) == 0)
+            return MINUS_ONE;
+        else
+            return result;
+    }
+
+    public void createKeyPair() throws RSAException {
+        createKeyPair(DEFAULT_KEY_SIZE);
+    }
+
+    public void createKeyPair(int keySize) throws RSAException {
+        KeyPair keyPair = newKeyPair(keySize);
+        setPublicKey(keyPair.getPublicKey());
+        setPrivateKey(keyPair.getPrivateKey());
+    }
+
+    public KeyPair newKeyPair(int keySize) throws RSAException {
+        //a pre-generated key pair is taken when the pool has the requested size,
+        //the current key pair is left as it is
+        KeyPairPool pool = keyPairPool;
+        return pool != null && pool.getKeySize() == keySize ? pool.take() : generateKeyPair(keySize);
+    }
+
+    static void checkKeySize(int keySize) throws RSAException {
+        if (keySize != DEFAULT_KEY_SIZE && (keySize < MIN_LARGE_KEY_SIZE || keySize > MAX_KEY_SIZE))
+            throw new RSAException("Key size has to be " + DEFAULT_KEY_SIZE + " or between "
+                    + MIN_LARGE_KEY_SIZE + " and " + MAX_KEY_SIZE + " bits.");
+        else if (keySize % 2 != 0)
+            throw new RSAException("Key size has to be even.");
+    }
+
+    protected static KeyPair generateKeyPair(int keySize) throws RSAException {
+        checkKeySize(keySize);
+
+        long start = System.nanoTime();
+
+        //1. generate p and q, both are searched for at once
+        //the generated primes have their two top bits set, so n has exactly keySize bits
+        BigInteger[] primes = PRIME_GENERATOR.generatePrimes(2, keySize / 2);
+        BigInteger p = primes[0];
+        BigInteger q = primes[1];
+
+        //2. calculate the public modulus n
+        //n = p * q
+        BigInteger n = p.multiply(q);
+
+        //3. calculate the Euler's totient function phi
+        //this formula is shown in the original RSA article, see the getPrime method above
+        //phi(n) = n - (p+q) + 1
+        BigInteger phi = n.subtract(p.add(q)).add(BigInteger.ONE);
+
+        //4. generate the public encryption exponent e
+        BigInteger e;
+        do {
+            e = PRIME_GENERATOR.generatePrime(BIT_LENGTH_16);
+        } while (phi.mod(e).intValue() == 0);
+
+        //5. generate the private decryption exponent d
+        BigInteger d = modInverse(e, phi);
+
+        //6. precompute the CRT components used by the fast decryption
+        //dP = d mod (p-1), dQ = d mod (q-1), qInv = q^-1 mod p
+        BigInteger dP = d.mod(p.subtract(BigInteger.ONE));
+        BigInteger dQ = d.mod(q.subtract(BigInteger.ONE));
+        BigInteger qInv = modInverse(q, p);
+
+        EngineMetrics.get().recordKeyGeneration(System.nanoTime() - start);
+        return new KeyPair(new RSAPublicKey(n, e), new RSAPrivateKey(n, d, p, q, dP, dQ, qInv));
+    }
+
+    public RSAPublicKey getPublicKey() throws RSAException {
+        checkPublicKey();
+        return new RSAPublicKey(n, e);
+    }
+
+    public RSAPrivateKey getPrivateKey() throws RSAException {
+        checkPrivateKey();
+        return new RSAPrivateKey(n, d, p, q, dP, dQ, qInv);
+    }
+
+    public CipherOptions getOptions() throws RSAException {
+        return new CipherOptions(chunkSize, hybrid, parallelism, compressed, packed);
+    }
+
+    public ByteArrayOutputStream encryptFile(byte[] plainText) throws RSAException, IOException {
+        return CIPHER.encryptFile(getPublicKey(), getOptions(), plainText);
+    }
+
+    public ByteArrayOutputStream decryptFile(byte[] cypherText) throws RSAException, IOException {
+        return CIPHER.decryptFile(getPrivateKey(), getOptions(), cypherText);
+    }
+
+    public void encrypt(ReadableByteChannel plainText, WritableByteChannel cypherText)
+            throws RSAException, IOException {
+        encrypt(plainText, cypherText, CipherProgress.NONE);
+    }
+
+    public void encrypt(ReadableByteChannel plainText, WritableByteChannel cypherText, CipherProgress progress)
+            throws RSAException, IOException {
+        CIPHER.encrypt(getPublicKey(), getOptions(), plainText, cypherText, progress);
+    }
+
+    public void decrypt(ReadableByteChannel cypherText, WritableByteChannel plainText)
+            throws RSAException, IOException {
+        decrypt(cypherText, plainText, CipherProgress.NONE);
+    }
+
+    public void decrypt(ReadableByteChannel cypherText, WritableByteChannel plainText, CipherProgress progress)
+            throws RSAException, IOException {
+        CIPHER.decrypt(getPrivateKey(), getOptions(), cypherText, plainText, progress);
+    }
+
+    public DecryptingChannel openDecryption(Path cypherText) throws RSAException, IOException {
+        return CIPHER.openDecryption(getPrivateKey(), cypherText);
+    }
+
+    private void checkPublicKey() throws RSAException {
+        if(e == null)
+            throw new RSAException("Public exponent is missing.");
+        else if (n == null)
+            throw new RSAException("Modulus is missing");
+    }
+
+    private void checkPrivateKey() throws RSAException {
+        if (d == null)
+            throw new RSAException("Private exponent is missing.");
+        else if (n == null)
+            throw new RSAException("Modulus is missing.");
+    }
+}
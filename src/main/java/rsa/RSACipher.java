@@ -0,0 +1,939 @@
+package rsa;
+
+import exceptions.CancelledException;
+import exceptions.RSAException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+import java.util.function.UnaryOperator;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterOutputStream;
+import java.util.zip.ZipException;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Stateless RSA file cipher, the key and the options are passed to every call.
+ *
+ * One instance may serve any number of threads and keys at once. The precomputed
+ * exponentiations of the recently used keys are kept in a bounded cache, the thread pools
+ * processing the chunks are shared by the calls with the same parallelism. Only the pools of the
+ * MAX_POOLS recently used parallelisms are kept, the least recently used one is shut down.
+ */
+public class RSACipher {
+    //encrypted chunk of the legacy format may be 33 bytes long (BigInteger uses two's complement)
+    static final int LEGACY_ENC_CHUNK_SIZE = 33;
+    //number of chunks the streaming encryption and decryption keep in memory
+    private static final int STREAM_BATCH_SIZE = 4096;
+    //bytes of a file mapped at once by the file to file mode, a window holds whole chunks
+    private static final int MAP_WINDOW_SIZE = 64 * 1024 * 1024;
+    //decrypted chunks kept by a DecryptingChannel
+    private static final int DEFAULT_CHUNK_CACHE_SIZE = 256;
+    //keys whose precomputed exponentiations are kept
+    static final int DEFAULT_CACHE_SIZE = 64;
+    //thread pools of distinct parallelisms kept at once
+    static final int MAX_POOLS = 4;
+
+    private static final EngineMetrics METRICS = EngineMetrics.get();
+
+    private final KeyContextCache contexts;
+    //results of the recently processed blocks, null when the blocks are not cached
+    private final BlockCache blockCache;
+    //LRU of the pools by their parallelism, guarded by itself
+    private final Map<Integer, ForkJoinPool> pools = new LinkedHashMap<Integer, ForkJoinPool>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, ForkJoinPool> eldest) {
+            if (size() <= MAX_POOLS)
+                return false;
+
+            //the chunks already running in the pool are finished, it only rejects new calls
+            eldest.getValue().shutdown();
+            return true;
+        }
+    };
+
+    public RSACipher() {
+        contexts = new KeyContextCache(DEFAULT_CACHE_SIZE);
+        blockCache = null;
+    }
+
+    public RSACipher(int cacheSize) throws RSAException {
+        this(cacheSize, 0);
+    }
+
+    public RSACipher(int cacheSize, long blockCacheBytes) throws RSAException {
+        //blockCacheBytes bounds the memory of the block results kept for the repeated blocks, 0 disables them
+        if (cacheSize < 1)
+            throw new RSAException("Cache size must be at least 1.");
+        if (blockCacheBytes < 0)
+            throw new RSAException("Block cache size must not be negative.");
+
+        contexts = new KeyContextCache(cacheSize);
+        blockCache = blockCacheBytes == 0 ? null : new BlockCache(blockCacheBytes);
+    }
+
+    public int getCacheSize() {
+        return contexts.size();
+    }
+
+    public long getCacheHits() {
+        return contexts.getHits();
+    }
+
+    public long getCacheMisses() {
+        return contexts.getMisses();
+    }
+
+    public long getCacheEvictions() {
+        return contexts.getEvictions();
+    }
+
+    public long getBlockCacheHits() {
+        return blockCache == null ? 0 : blockCache.getHits();
+    }
+
+    public long getBlockCacheMisses() {
+        return blockCache == null ? 0 : blockCache.getMisses();
+    }
+
+    public long getBlockCacheTrivialBlocks() {
+        //the blocks 0 and 1 (e.g. all-zero chunks), which are their own results
+        return blockCache == null ? 0 : blockCache.getTrivialBlocks();
+    }
+
+    public long getBlockCacheEvictions() {
+        return blockCache == null ? 0 : blockCache.getEvictions();
+    }
+
+    public long getBlockCacheBytes() {
+        return blockCache == null ? 0 : blockCache.getBytes();
+    }
+
+    public double getBlockCacheHitRate() {
+        return blockCache == null ? 0 : blockCache.getHitRate();
+    }
+
+    public ByteArrayOutputStream encryptFile(RSAPublicKey key, CipherOptions options, byte[] plainText)
+            throws RSAException, IOException {
+        ByteArrayOutputStream cypherText = new ByteArrayOutputStream();
+        encrypt(key, options, Channels.newChannel(new ByteArrayInputStream(plainText)),
+                Channels.newChannel(cypherText));
+
+        return cypherText;
+    }
+
+    public ByteArrayOutputStream decryptFile(RSAPrivateKey key, CipherOptions options, byte[] cypherText)
+            throws RSAException, IOException {
+        ByteArrayOutputStream plainText = new ByteArrayOutputStream();
+        decrypt(key, options, Channels.newChannel(new ByteArrayInputStream(cypherText)),
+                Channels.newChannel(plainText));
+
+        return plainText;
+    }
+
+    public void encrypt(RSAPublicKey key, CipherOptions options,
+                        ReadableByteChannel plainText, WritableByteChannel cypherText)
+            throws RSAException, IOException {
+        encrypt(key, options, plainText, cypherText, CipherProgress.NONE);
+    }
+
+    public void encrypt(RSAPublicKey key, CipherOptions options,
+                        ReadableByteChannel plainText, WritableByteChannel cypherText, CipherProgress progress)
+            throws RSAException, IOException {
+        long start = System.nanoTime();
+        MeasuredProgress measured = new MeasuredProgress(progress);
+        encryptChannel(key, options, plainText, cypherText, measured);
+        METRICS.recordEncryption(measured.bytesRead, System.nanoTime() - start);
+    }
+
+    private void encryptChannel(RSAPublicKey key, CipherOptions options,
+                                ReadableByteChannel plainText, WritableByteChannel cypherText, CipherProgress progress)
+            throws RSAException, IOException {
+        checkChunkSize(key, options);
+
+        if (options.isCompressed()) {
+            //a sample of the plain text decides whether the compression pays off
+            byte[] sample = METRICS.newBuffer(Compression.SAMPLE_SIZE);
+            int sampleLength = readFully(plainText, sample, 0, sample.length);
+            if (Compression.compresses(sample, sampleLength)) {
+                encryptCompressed(key, options, sample, sampleLength, plainText, cypherText, progress);
+                return;
+            }
+
+            plainText = Compression.prepend(sample, sampleLength, plainText);
+        }
+
+        encryptStream(key, options, 0, plainText, cypherText, progress);
+    }
+
+    private void encryptCompressed(RSAPublicKey key, CipherOptions options, byte[] sample, int sampleLength,
+                                   ReadableByteChannel plainText, WritableByteChannel cypherText,
+                                   CipherProgress progress) throws RSAException, IOException {
+        Deflater deflater = new Deflater();
+        try {
+            //the chunks count the compressed bytes, the progress the plain text bytes
+            CipherProgress plainTextProgress = new CipherProgress() {
+                @Override
+                public void update(long bytesRead, long chunks) {
+                    progress.update(deflater.getBytesRead(), chunks);
+                }
+
+                @Override
+                public boolean isCancelled() {
+                    return progress.isCancelled();
+                }
+            };
+
+            encryptStream(key, options, CipherHeader.FLAG_COMPRESSED,
+                    Compression.deflating(sample, sampleLength, plainText, deflater), cypherText, plainTextProgress);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void encryptStream(RSAPublicKey key, CipherOptions options, int flags,
+                               ReadableByteChannel plainText, WritableByteChannel cypherText, CipherProgress progress)
+            throws RSAException, IOException {
+        //the chunk sizes follow from the key and go to the header
+        int chunkSize = options.getChunkSize();
+        int encChunkSize = key.getEncChunkSize();
+
+        if (options.isHybrid()) {
+            encryptHybrid(key, flags, plainText, cypherText, progress);
+            return;
+        }
+
+        //the packed groups take the place of the chunks
+        PackedCodec packing = options.isPacked() ? new PackedCodec(key.getKeySize()) : null;
+        if (packing != null) {
+            flags |= CipherHeader.FLAG_PACKED;
+            chunkSize = packing.getGroupSize();
+            encChunkSize = packing.getEncGroupSize();
+        }
+
+        writeFully(cypherText, new CipherHeader(flags, chunkSize, encChunkSize).toByteArray(), CipherHeader.SIZE);
+        encryptChunks(key, options, chunkSize, encChunkSize, packing, plainText, cypherText, progress);
+    }
+
+    private void encryptChunks(RSAPublicKey key, CipherOptions options, int chunkSize, int encChunkSize,
+                               PackedCodec packing, ReadableByteChannel plainText, WritableByteChannel cypherText,
+                               CipherProgress progress) throws RSAException, IOException {
+        //the plain text is processed in batches, so the memory use does not depend on its size
+        int batchSize = batchSize(packing);
+        byte[] plainChunks = METRICS.newBuffer(batchSize * chunkSize);
+        byte[] encryptedChunks = METRICS.newBuffer((batchSize + 1) * encChunkSize);
+        UnaryOperator<BigInteger> encryption = encryption(key);
+        long bytesRead = 0, chunks = 0;
+        boolean last;
+
+        do {
+            int length = readFully(plainText, plainChunks, 0, plainChunks.length);
+            int fullChunks = length / chunkSize;
+
+            //a batch which is not filled up is the end of the plain text, the remaining bytes
+            //go to the padded last chunk
+            last = length < plainChunks.length;
+            int chunkCount = last ? fullChunks + 1 : fullChunks;
+
+            forEachChunk(options, progress, chunkCount, i -> {
+                if (packing != null) {
+                    if (i < fullChunks)
+                        packing.encryptGroup(encryption, plainChunks, i * chunkSize, encryptedChunks, i * encChunkSize);
+                    else
+                        packing.encryptLastGroup(encryption, plainChunks, i * chunkSize, length % chunkSize,
+                                encryptedChunks, i * encChunkSize);
+                    return;
+                }
+
+                ChunkCodec codec = ChunkCodec.forThread();
+                BigInteger chunk = i < fullChunks ?
+                        codec.readChunk(plainChunks, i * chunkSize, chunkSize) :
+                        codec.readLastChunk(plainChunks, i * chunkSize, length % chunkSize, chunkSize);
+
+                //c = m^e mod n
+                codec.writeChunk(encryption.apply(chunk), encryptedChunks, i * encChunkSize, encChunkSize);
+            });
+
+            //the last packed group takes only the bytes of its blocks
+            int lastSize = !last ? 0 : packing != null ? packing.getEncLastGroupSize(length % chunkSize) : encChunkSize;
+            writeFully(cypherText, encryptedChunks, fullChunks * encChunkSize + lastSize);
+
+            bytesRead += length;
+            chunks += chunkCount;
+            progress.update(bytesRead, chunks);
+        } while (!last);
+    }
+
+    public void append(KeyPair keyPair, CipherOptions options, ReadableByteChannel plainText, Path cypherText)
+            throws RSAException, IOException {
+        append(keyPair, options, plainText, cypherText, CipherProgress.NONE);
+    }
+
+    public void append(KeyPair keyPair, CipherOptions options, ReadableByteChannel plainText, Path cypherText,
+                       CipherProgress progress) throws RSAException, IOException {
+        long start = System.nanoTime();
+        MeasuredProgress measured = new MeasuredProgress(progress);
+        appendChannel(keyPair, options, plainText, cypherText, measured);
+        METRICS.recordEncryption(measured.bytesRead, System.nanoTime() - start);
+    }
+
+    private void appendChannel(KeyPair keyPair, CipherOptions options, ReadableByteChannel plainText,
+                               Path cypherText, CipherProgress progress) throws RSAException, IOException {
+        //the plain text is added to the end of a streamed cypher text: the padded last chunk is
+        //decrypted and encrypted again with the appended bytes, the chunks before it are not read,
+        //so the cost depends only on the size of the append
+        RSAPublicKey publicKey = keyPair.getPublicKey();
+        RSAPrivateKey privateKey = keyPair.getPrivateKey();
+        if (privateKey == null || !privateKey.getN().equals(publicKey.getN()))
+            throw new RSAException("Appending needs the private key of the public key to read the last chunk.");
+        if (options.isHybrid() || options.isCompressed())
+            throw new RSAException("Appending supports neither the hybrid mode nor the compression.");
+
+        try (FileChannel channel = FileChannel.open(cypherText, READ, WRITE, CREATE)) {
+            //concurrent appends to the same file wait for each other, closing the channel releases the lock
+            channel.lock();
+            long size = channel.size();
+            if (size == 0) {
+                //a new file starts like any streamed cypher text
+                checkChunkSize(publicKey, options);
+                try {
+                    encryptStream(publicKey, options, 0, plainText, channel, progress);
+                } catch (RSAException | IOException | RuntimeException ex) {
+                    channel.truncate(0);
+                    throw ex;
+                }
+                return;
+            }
+
+            byte[] headerBytes = new byte[CipherHeader.SIZE];
+            int headerLength = readAt(channel, headerBytes, headerBytes.length, 0);
+            if (!CipherHeader.hasMagic(headerBytes, headerLength))
+                throw new RSAException("Only the streamed cypher text format can be appended to.");
+
+            //the chunk sizes of the file win over the options
+            CipherHeader header = CipherHeader.parse(headerBytes, headerLength);
+            checkHeader(privateKey, header);
+            if ((header.getFlags() & ~CipherHeader.FLAG_PACKED) != 0)
+                throw new RSAException("Cypher text in the hybrid mode or compressed cannot be appended to.");
+
+            int chunkSize = header.getChunkSize();
+            int encChunkSize = header.getEncChunkSize();
+            PackedCodec packing = (header.getFlags() & CipherHeader.FLAG_PACKED) != 0 ?
+                    new PackedCodec(publicKey.getKeySize()) : null;
+            long length = size - CipherHeader.SIZE;
+            if (packing == null && length % encChunkSize != 0 || length == 0)
+                throw new RSAException("Cypher text is truncated.");
+
+            //the last packed group may be shorter than the others
+            int lastChunkSize = packing != null ? packing.getEncLastGroupSize(length) : encChunkSize;
+            long lastChunkPosition = size - lastChunkSize;
+            byte[] lastChunk = new byte[lastChunkSize];
+            readAt(channel, lastChunk, lastChunkSize, lastChunkPosition);
+
+            //m = c^d mod n, the remaining plain text bytes of the last chunk go before the appended ones
+            byte[] tail = new byte[chunkSize];
+            int tailLength = decryptLastChunk(decryption(privateKey), packing, lastChunk, 0, lastChunkSize, tail, 0,
+                    chunkSize);
+            if (tailLength < 0)
+                throw new RSAException("Wrong key or corrupted cypher text.");
+
+            //the progress counts the appended bytes only
+            CipherProgress appendedProgress = new CipherProgress() {
+                @Override
+                public void update(long bytesRead, long chunks) {
+                    progress.update(bytesRead - tailLength, chunks);
+                }
+
+                @Override
+                public boolean isCancelled() {
+                    return progress.isCancelled();
+                }
+            };
+
+            channel.position(lastChunkPosition);
+            try {
+                encryptChunks(publicKey, options, chunkSize, encChunkSize, packing,
+                        Compression.prepend(tail, tailLength, plainText), channel, appendedProgress);
+            } catch (RSAException | IOException | RuntimeException ex) {
+                //a failed append leaves the cypher text as it was
+                channel.truncate(size);
+                writeAt(channel, lastChunk, lastChunkSize, lastChunkPosition);
+                throw ex;
+            }
+        }
+    }
+
+    public void decrypt(RSAPrivateKey key, CipherOptions options,
+                        ReadableByteChannel cypherText, WritableByteChannel plainText)
+            throws RSAException, IOException {
+        decrypt(key, options, cypherText, plainText, CipherProgress.NONE);
+    }
+
+    public void decrypt(RSAPrivateKey key, CipherOptions options,
+                        ReadableByteChannel cypherText, WritableByteChannel plainText, CipherProgress progress)
+            throws RSAException, IOException {
+        long start = System.nanoTime();
+        MeasuredProgress measured = new MeasuredProgress(progress);
+        decryptChannel(key, options, cypherText, plainText, measured);
+        METRICS.recordDecryption(measured.bytesRead, System.nanoTime() - start);
+    }
+
+    private void decryptChannel(RSAPrivateKey key, CipherOptions options,
+                                ReadableByteChannel cypherText, WritableByteChannel plainText, CipherProgress progress)
+            throws RSAException, IOException {
+        byte[] headerBytes = new byte[CipherHeader.SIZE];
+        int headerLength = readFully(cypherText, headerBytes, 0, headerBytes.length);
+
+        if (!CipherHeader.hasMagic(headerBytes, headerLength)) {
+            //the legacy format keeps the chunk sizes at the end, so it has to be read whole
+            ByteArrayOutputStream legacyCypherText = new ByteArrayOutputStream();
+            legacyCypherText.write(headerBytes, 0, headerLength);
+            byte[] buffer = new byte[STREAM_BATCH_SIZE];
+            for (int length; (length = readFully(cypherText, buffer, 0, buffer.length)) > 0; )
+                legacyCypherText.write(buffer, 0, length);
+
+            byte[] decrypted = decryptLegacyFile(key, options, legacyCypherText.toByteArray(), progress)
+                    .toByteArray();
+            writeFully(plainText, decrypted, decrypted.length);
+            return;
+        }
+
+        CipherHeader header = CipherHeader.parse(headerBytes, headerLength);
+        checkHeader(key, header);
+
+        if ((header.getFlags() & CipherHeader.FLAG_COMPRESSED) == 0) {
+            decryptStream(key, options, header, cypherText, plainText, progress);
+            return;
+        }
+
+        Inflater inflater = new Inflater();
+        try {
+            InflaterOutputStream inflating = Compression.inflating(plainText, inflater);
+            decryptStream(key, options, header, cypherText, Channels.newChannel(inflating), progress);
+            inflating.finish();
+
+            //a stream cut short decrypts fine, but does not inflate to its end
+            if (!inflater.finished())
+                throw new RSAException("Wrong key or corrupted cypher text.");
+        } catch (ZipException ex) {
+            throw new RSAException("Wrong key or corrupted cypher text.");
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private void decryptStream(RSAPrivateKey key, CipherOptions options, CipherHeader header,
+                               ReadableByteChannel cypherText, WritableByteChannel plainText, CipherProgress progress)
+            throws RSAException, IOException {
+        int chunkSize = header.getChunkSize();
+        int encChunkSize = header.getEncChunkSize();
+
+        if ((header.getFlags() & CipherHeader.FLAG_HYBRID) != 0) {
+            decryptHybrid(key, cypherText, plainText, chunkSize, encChunkSize, progress);
+            return;
+        }
+
+        PackedCodec packing = (header.getFlags() & CipherHeader.FLAG_PACKED) != 0 ?
+                new PackedCodec(key.getKeySize()) : null;
+        AtomicBoolean corrupted = new AtomicBoolean();
+
+        //one more encrypted chunk than decrypted ones, the last chunk read is held back
+        //until it is known whether it is the last chunk of the cypher text
+        int batchSize = batchSize(packing);
+        byte[] encryptedChunks = METRICS.newBuffer((batchSize + 1) * encChunkSize);
+        byte[] decryptedChunks = METRICS.newBuffer((batchSize + 1) * chunkSize);
+        UnaryOperator<BigInteger> decryption = decryption(key);
+        long bytesRead = CipherHeader.SIZE, chunks = 0;
+        int heldBack = 0;
+        boolean last;
+
+        do {
+            int read = readFully(cypherText, encryptedChunks, heldBack, encryptedChunks.length - heldBack);
+            int length = heldBack + read;
+            last = length < encryptedChunks.length;
+
+            //only the last packed group may be shorter than the others
+            if (packing == null && length % encChunkSize != 0 || length == 0)
+                throw new RSAException("Cypher text is truncated.");
+
+            int fullChunks = (length - 1) / encChunkSize;
+            forEachChunk(options, progress, fullChunks, i -> {
+                if (packing != null) {
+                    if (!packing.decryptGroup(decryption, encryptedChunks, i * encChunkSize, decryptedChunks,
+                            i * chunkSize))
+                        corrupted.set(true);
+                    return;
+                }
+
+                ChunkCodec codec = ChunkCodec.forThread();
+
+                //m = c^d mod n
+                codec.writeChunk(decryption.apply(codec.readChunk(encryptedChunks, i * encChunkSize, encChunkSize)),
+                        decryptedChunks, i * chunkSize, chunkSize);
+            });
+            if (corrupted.get())
+                throw new RSAException("Wrong key or corrupted cypher text.");
+
+            int decryptedLength = fullChunks * chunkSize;
+            if (last) {
+                //the last chunk carries the remaining plain text bytes followed by the padding
+                int remaining = decryptLastChunk(decryption, packing, encryptedChunks, fullChunks * encChunkSize,
+                        length - fullChunks * encChunkSize, decryptedChunks, decryptedLength, chunkSize);
+                if (remaining < 0)
+                    throw new RSAException("Wrong key or corrupted cypher text.");
+
+                decryptedLength += remaining;
+            }
+
+            writeFully(plainText, decryptedChunks, decryptedLength);
+
+            bytesRead += read;
+            chunks += last ? fullChunks + 1 : fullChunks;
+            progress.update(bytesRead, chunks);
+
+            if (!last) {
+                System.arraycopy(encryptedChunks, fullChunks * encChunkSize, encryptedChunks, 0, encChunkSize);
+                heldBack = encChunkSize;
+            }
+        } while (!last);
+    }
+
+    public void encrypt(RSAPublicKey key, CipherOptions options, Path plainText, Path cypherText,
+                        CipherProgress progress) throws RSAException, IOException {
+        long start = System.nanoTime();
+        MeasuredProgress measured = new MeasuredProgress(progress);
+        encryptMapped(key, options, plainText, cypherText, measured);
+        METRICS.recordEncryption(measured.bytesRead, System.nanoTime() - start);
+    }
+
+    private void encryptMapped(RSAPublicKey key, CipherOptions options, Path plainText, Path cypherText,
+                               CipherProgress progress) throws RSAException, IOException {
+        checkChunkSize(key, options);
+
+        try (FileChannel input = FileChannel.open(plainText, READ);
+             FileChannel output = FileChannel.open(cypherText, READ, WRITE, CREATE, TRUNCATE_EXISTING)) {
+            if (options.isHybrid()) {
+                //the records of the hybrid mode are streamed
+                encryptChannel(key, options, input, output, progress);
+                return;
+            }
+
+            if (options.isCompressed()) {
+                byte[] sample = METRICS.newBuffer(Compression.SAMPLE_SIZE);
+                int sampleLength = readAt(input, sample, sample.length, 0);
+                if (Compression.compresses(sample, sampleLength)) {
+                    //the compressed chunks have no place known in advance, they are streamed
+                    input.position(sampleLength);
+                    encryptCompressed(key, options, sample, sampleLength, input, output, progress);
+                    return;
+                }
+            }
+
+            //the packed groups take the place of the chunks
+            PackedCodec packing = options.isPacked() ? new PackedCodec(key.getKeySize()) : null;
+            int chunkSize = packing != null ? packing.getGroupSize() : options.getChunkSize();
+            int encChunkSize = packing != null ? packing.getEncGroupSize() : key.getEncChunkSize();
+            int flags = packing != null ? CipherHeader.FLAG_PACKED : 0;
+
+            //every chunk has its place in the cypher text known in advance:
+            //the header, the full chunks and the padded last chunk
+            long length = input.size();
+            long fullChunks = length / chunkSize;
+            int remaining = (int) (length % chunkSize);
+            UnaryOperator<BigInteger> encryption = encryption(key);
+            writeAt(output, new CipherHeader(flags, chunkSize, encChunkSize).toByteArray(), CipherHeader.SIZE, 0);
+
+            int windowChunks = MAP_WINDOW_SIZE / encChunkSize;
+            for (long first = 0; first < fullChunks; first += windowChunks) {
+                int count = (int) Math.min(windowChunks, fullChunks - first);
+                MappedByteBuffer plainChunks = input.map(FileChannel.MapMode.READ_ONLY,
+                        first * chunkSize, (long) count * chunkSize);
+                MappedByteBuffer encryptedChunks = output.map(FileChannel.MapMode.READ_WRITE,
+                        CipherHeader.SIZE + first * encChunkSize, (long) count * encChunkSize);
+
+                forEachChunk(options, progress, count, i -> {
+                    if (packing != null) {
+                        packing.encryptGroup(encryption, plainChunks, i * chunkSize, encryptedChunks, i * encChunkSize);
+                        return;
+                    }
+
+                    ChunkCodec codec = ChunkCodec.forThread();
+
+                    //c = m^e mod n
+                    codec.writeChunk(encryption.apply(codec.readChunk(plainChunks, i * chunkSize, chunkSize)),
+                            encryptedChunks, i * encChunkSize, encChunkSize);
+                });
+
+                progress.update((first + count) * chunkSize, first + count);
+            }
+
+            byte[] lastChunk = new byte[Math.max(chunkSize, encChunkSize)];
+            readAt(input, lastChunk, remaining, fullChunks * chunkSize);
+            int lastSize = encChunkSize;
+            if (packing != null) {
+                lastSize = packing.encryptLastGroup(encryption, lastChunk, 0, remaining, lastChunk, 0);
+            } else {
+                ChunkCodec codec = ChunkCodec.forThread();
+                codec.writeChunk(encryption.apply(codec.readLastChunk(lastChunk, 0, remaining, chunkSize)),
+                        lastChunk, 0, encChunkSize);
+            }
+            writeAt(output, lastChunk, lastSize, CipherHeader.SIZE + fullChunks * encChunkSize);
+            progress.update(length, fullChunks + 1);
+        }
+    }
+
+    public void decrypt(RSAPrivateKey key, CipherOptions options, Path cypherText, Path plainText,
+                        CipherProgress progress) throws RSAException, IOException {
+        long start = System.nanoTime();
+        MeasuredProgress measured = new MeasuredProgress(progress);
+        decryptMapped(key, options, cypherText, plainText, measured);
+        METRICS.recordDecryption(measured.bytesRead, System.nanoTime() - start);
+    }
+
+    private void decryptMapped(RSAPrivateKey key, CipherOptions options, Path cypherText, Path plainText,
+                               CipherProgress progress) throws RSAException, IOException {
+        try (FileChannel input = FileChannel.open(cypherText, READ);
+             FileChannel output = FileChannel.open(plainText, READ, WRITE, CREATE, TRUNCATE_EXISTING)) {
+            byte[] headerBytes = new byte[CipherHeader.SIZE];
+            int headerLength = readAt(input, headerBytes, headerBytes.length, 0);
+            if (!CipherHeader.hasMagic(headerBytes, headerLength) || (CipherHeader.parse(headerBytes, headerLength)
+                    .getFlags() & (CipherHeader.FLAG_HYBRID | CipherHeader.FLAG_COMPRESSED)) != 0) {
+                //the legacy format, the records of the hybrid mode and the compressed chunks are streamed
+                input.position(0);
+                decryptChannel(key, options, input, output, progress);
+                return;
+            }
+
+            CipherHeader header = CipherHeader.parse(headerBytes, headerLength);
+            int chunkSize = header.getChunkSize();
+            int encChunkSize = header.getEncChunkSize();
+            checkHeader(key, header);
+
+            PackedCodec packing = (header.getFlags() & CipherHeader.FLAG_PACKED) != 0 ?
+                    new PackedCodec(key.getKeySize()) : null;
+            AtomicBoolean corrupted = new AtomicBoolean();
+
+            //only the last packed group may be shorter than the others
+            long length = input.size() - CipherHeader.SIZE;
+            if (packing == null && length % encChunkSize != 0 || length == 0)
+                throw new RSAException("Cypher text is truncated.");
+            long fullChunks = (length - 1) / encChunkSize;
+            int lastSize = (int) (length - fullChunks * encChunkSize);
+            UnaryOperator<BigInteger> decryption = decryption(key);
+
+            //the last chunk goes first, it tells the size of the plain text
+            byte[] lastChunk = new byte[Math.max(chunkSize, encChunkSize)];
+            readAt(input, lastChunk, lastSize, CipherHeader.SIZE + fullChunks * encChunkSize);
+            int remaining = decryptLastChunk(decryption, packing, lastChunk, 0, lastSize, lastChunk, 0, chunkSize);
+            if (remaining < 0)
+                throw new RSAException("Wrong key or corrupted cypher text.");
+
+            int windowChunks = MAP_WINDOW_SIZE / encChunkSize;
+            for (long first = 0; first < fullChunks; first += windowChunks) {
+                int count = (int) Math.min(windowChunks, fullChunks - first);
+                MappedByteBuffer encryptedChunks = input.map(FileChannel.MapMode.READ_ONLY,
+                        CipherHeader.SIZE + first * encChunkSize, (long) count * encChunkSize);
+                MappedByteBuffer decryptedChunks = output.map(FileChannel.MapMode.READ_WRITE,
+                        first * chunkSize, (long) count * chunkSize);
+
+                forEachChunk(options, progress, count, i -> {
+                    if (packing != null) {
+                        if (!packing.decryptGroup(decryption, encryptedChunks, i * encChunkSize, decryptedChunks,
+                                i * chunkSize))
+                            corrupted.set(true);
+                        return;
+                    }
+
+                    ChunkCodec chunkCodec = ChunkCodec.forThread();
+
+                    //m = c^d mod n
+                    chunkCodec.writeChunk(
+                            decryption.apply(chunkCodec.readChunk(encryptedChunks, i * encChunkSize, encChunkSize)),
+                            decryptedChunks, i * chunkSize, chunkSize);
+                });
+                if (corrupted.get())
+                    throw new RSAException("Wrong key or corrupted cypher text.");
+
+                progress.update(CipherHeader.SIZE + (first + count + 1) * encChunkSize, first + count);
+            }
+
+            writeAt(output, lastChunk, remaining, fullChunks * chunkSize);
+            progress.update(input.size(), fullChunks + 1);
+        }
+    }
+
+    public DecryptingChannel openDecryption(RSAPrivateKey key, Path cypherText) throws RSAException, IOException {
+        return openDecryption(key, cypherText, DEFAULT_CHUNK_CACHE_SIZE);
+    }
+
+    public DecryptingChannel openDecryption(RSAPrivateKey key, Path cypherText, int chunkCacheSize)
+            throws RSAException, IOException {
+        if (chunkCacheSize < 1)
+            throw new RSAException("Chunk cache size must be at least 1.");
+
+        FileChannel channel = FileChannel.open(cypherText, READ);
+        try {
+            return new DecryptingChannel(channel, key, decryption(key), chunkCacheSize);
+        } catch (RSAException | IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    private void encryptHybrid(RSAPublicKey key, int flags, ReadableByteChannel plainText,
+                               WritableByteChannel cypherText, CipherProgress progress)
+            throws RSAException, IOException {
+        //the session key is encrypted as a single last chunk of the largest size the key allows
+        int chunkSize = key.getMaxChunkSize();
+        int encChunkSize = key.getEncChunkSize();
+        byte[] sessionKey = HybridCipher.newSessionKey(chunkSize);
+
+        ChunkCodec codec = ChunkCodec.forThread();
+        byte[] encryptedSessionKey = new byte[encChunkSize];
+        codec.writeChunk(encryption(key).apply(codec.readLastChunk(sessionKey, 0, sessionKey.length, chunkSize)),
+                encryptedSessionKey, 0, encChunkSize);
+
+        writeFully(cypherText, new CipherHeader(flags | CipherHeader.FLAG_HYBRID, chunkSize, encChunkSize).toByteArray(),
+                CipherHeader.SIZE);
+        writeFully(cypherText, encryptedSessionKey, encChunkSize);
+        new HybridCipher(sessionKey).encrypt(plainText, cypherText, progress, 0);
+    }
+
+    private void decryptHybrid(RSAPrivateKey key, ReadableByteChannel cypherText, WritableByteChannel plainText,
+                               int chunkSize, int encChunkSize, CipherProgress progress)
+            throws RSAException, IOException {
+        byte[] encryptedSessionKey = new byte[encChunkSize];
+        if (readFully(cypherText, encryptedSessionKey, 0, encChunkSize) != encChunkSize)
+            throw new RSAException("Cypher text is truncated.");
+
+        ChunkCodec codec = ChunkCodec.forThread();
+        byte[] sessionKey = new byte[chunkSize];
+        int sessionKeyLength = codec.writeLastChunk(
+                decryption(key).apply(codec.readChunk(encryptedSessionKey, 0, encChunkSize)),
+                sessionKey, 0, chunkSize);
+        if (sessionKeyLength < 0)
+            throw new RSAException("Wrong key or corrupted cypher text.");
+
+        new HybridCipher(Arrays.copyOf(sessionKey, sessionKeyLength)).decrypt(cypherText, plainText, progress,
+                CipherHeader.SIZE + encChunkSize);
+    }
+
+    private ByteArrayOutputStream decryptLegacyFile(RSAPrivateKey key, CipherOptions options, byte[] cypherText,
+                                                    CipherProgress progress) throws RSAException, IOException {
+        //the legacy format: a shorter first chunk, equal chunks after it and the sizes
+        //of the chunks in the last two bytes
+        if (cypherText.length < 2 || (cypherText.length - 2) % LEGACY_ENC_CHUNK_SIZE != 0)
+            throw new RSAException("Cypher text is truncated.");
+
+        //byte stream of decrypted data
+        ByteArrayOutputStream outputData = new ByteArrayOutputStream();
+
+        //load the chunk sizes used during encryption
+        int chunkSize = cypherText[cypherText.length - 1];
+        int firstChunkSize = cypherText[cypherText.length - 2];
+
+        //the first chunk may be shorter, all the others are chunkSize bytes long
+        int chunkCount = (cypherText.length - 2) / LEGACY_ENC_CHUNK_SIZE;
+        byte[] decryptedChunks = METRICS.newBuffer(chunkCount == 0 ? 0 : firstChunkSize + (chunkCount - 1) * chunkSize);
+        UnaryOperator<BigInteger> decryption = decryption(key);
+
+        //decrypt the incoming chunks
+        forEachChunk(options, progress, chunkCount, i -> {
+            ChunkCodec codec = ChunkCodec.forThread();
+
+            //m = c^d mod n
+            BigInteger decryptedChunk = decryption.apply(codec.readChunk(cypherText, i * LEGACY_ENC_CHUNK_SIZE, LEGACY_ENC_CHUNK_SIZE));
+
+            //process the first chunk
+            if (i == 0)
+                codec.writeChunk(decryptedChunk, decryptedChunks, 0, firstChunkSize);
+            //process the rest of the chunks
+            else
+                codec.writeChunk(decryptedChunk, decryptedChunks, firstChunkSize + (i - 1) * chunkSize, chunkSize);
+        });
+
+        outputData.write(decryptedChunks);
+        progress.update(cypherText.length, chunkCount);
+        return outputData;
+    }
+
+    private UnaryOperator<BigInteger> encryption(RSAPublicKey key) {
+        return METRICS.measureEncryption(cached(key.getFingerprint(), contexts.encryption(key)));
+    }
+
+    private UnaryOperator<BigInteger> decryption(RSAPrivateKey key) {
+        return METRICS.measureDecryption(cached(key.getFingerprint(), contexts.decryption(key)));
+    }
+
+    private UnaryOperator<BigInteger> cached(String fingerprint, UnaryOperator<BigInteger> function) {
+        //the metrics count every chunk, the latency of a cached block is the one of its lookup
+        return blockCache == null ? function : blockCache.wrap(fingerprint, function);
+    }
+
+    private static void checkChunkSize(RSAPublicKey key, CipherOptions options) throws RSAException {
+        //the packed blocks always take the largest size, the chunk size is not used
+        if (!options.isPacked() && options.getChunkSize() > key.getMaxChunkSize())
+            throw new RSAException("Chunk size has to be between " + RSA.MIN_CHUNK_SIZE + " and "
+                    + key.getMaxChunkSize() + " bytes for this key.");
+    }
+
+    static void checkHeader(RSAPrivateKey key, CipherHeader header) throws RSAException {
+        boolean matches = (header.getFlags() & CipherHeader.FLAG_PACKED) != 0 ?
+                header.getEncChunkSize() == key.getKeySize() && header.getChunkSize() == key.getKeySize() - 1 :
+                header.getEncChunkSize() == key.getEncChunkSize() && header.getChunkSize() <= key.getMaxChunkSize();
+        if (!matches)
+            throw new RSAException("Cypher text was encrypted with a key of a different size.");
+    }
+
+    private static int batchSize(PackedCodec packing) {
+        //a batch holds as many blocks with the packed groups as with the chunks
+        return packing == null ? STREAM_BATCH_SIZE : STREAM_BATCH_SIZE / PackedCodec.GROUP_BLOCKS;
+    }
+
+    private static int decryptLastChunk(UnaryOperator<BigInteger> decryption, PackedCodec packing, byte[] src,
+                                        int offset, int length, byte[] dest, int destOffset, int chunkSize) {
+        //returns the number of plain text bytes carried by the last chunk or group, -1 if it is malformed
+        if (packing != null)
+            return packing.decryptLastGroup(decryption, src, offset, length, dest, destOffset);
+
+        ChunkCodec codec = ChunkCodec.forThread();
+        return codec.writeLastChunk(decryption.apply(codec.readChunk(src, offset, length)), dest, destOffset,
+                chunkSize);
+    }
+
+    static long workingSetSize(int chunkSize, int encChunkSize, boolean compressed) {
+        //the chunk buffers of the streamed format or the records of the hybrid mode,
+        //the legacy format is decrypted in memory as a whole
+        long chunks = (long) (STREAM_BATCH_SIZE + 1) * (chunkSize + encChunkSize);
+        return Math.max(chunks, HybridCipher.WORKING_SET_SIZE) + (compressed ? Compression.WORKING_SET_SIZE : 0);
+    }
+
+    static int readFully(ReadableByteChannel channel, byte[] dest, int offset, int length)
+            throws IOException {
+        //reads until the buffer is full or the channel ends, returns the number of bytes read
+        ByteBuffer buffer = ByteBuffer.wrap(dest, offset, length);
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0);
+
+        return buffer.position() - offset;
+    }
+
+    static int readAt(FileChannel channel, byte[] dest, int length, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(dest, 0, length);
+        while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) >= 0);
+
+        return buffer.position();
+    }
+
+    static void writeAt(FileChannel channel, byte[] src, int length, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(src, 0, length);
+        while (buffer.hasRemaining())
+            channel.write(buffer, position + buffer.position());
+    }
+
+    static void writeFully(WritableByteChannel channel, byte[] src, int length) throws IOException {
+        writeFully(channel, src, 0, length);
+    }
+
+    static void writeFully(WritableByteChannel channel, byte[] src, int offset, int length)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(src, offset, length);
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+    }
+
+    private void forEachChunk(CipherOptions options, CipherProgress progress, int chunkCount, IntConsumer action)
+            throws CancelledException {
+        //once the call is cancelled, the remaining chunks are skipped
+        IntConsumer chunk = progress == CipherProgress.NONE ? action : i -> {
+            if (!progress.isCancelled())
+                action.accept(i);
+        };
+
+        int parallelism = options.getParallelism();
+        if (parallelism <= 1 || chunkCount < 2) {
+            for (int i = 0; i < chunkCount; i++)
+                chunk.accept(i);
+        } else {
+            while (true) {
+                try {
+                    pool(parallelism).invoke(new ChunkTask(chunk, 0, chunkCount));
+                    break;
+                } catch (RejectedExecutionException ex) {
+                    //the pool was evicted and shut down meanwhile, the next try creates a new one
+                }
+            }
+        }
+
+        if (progress.isCancelled())
+            throw new CancelledException();
+    }
+
+    private ForkJoinPool pool(int parallelism) {
+        synchronized (pools) {
+            return pools.computeIfAbsent(parallelism, ForkJoinPool::new);
+        }
+    }
+
+    private static class MeasuredProgress implements CipherProgress {
+        //keeps the bytes read for the throughput of the call
+        private final CipherProgress progress;
+        private long bytesRead;
+
+        MeasuredProgress(CipherProgress progress) {
+            this.progress = progress;
+        }
+
+        @Override
+        public void update(long bytesRead, long chunks) {
+            this.bytesRead = bytesRead;
+            progress.update(bytesRead, chunks);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return progress.isCancelled();
+        }
+    }
+
+    private static class ChunkTask extends RecursiveAction {
+        //chunks processed by a single task without further splitting
+        private static final int THRESHOLD = 64;
+        private final IntConsumer action;
+        private final int from, to;
+
+        ChunkTask(IntConsumer action, int from, int to) {
+            this.action = action;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= THRESHOLD) {
+                for (int i = from; i < to; i++)
+                    action.accept(i);
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ChunkTask(action, from, middle), new ChunkTask(action, middle, to));
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package rsa;
+
+import exceptions.RSAException;
+
+import java.math.BigInteger;
+import java.util.function.UnaryOperator;
+
+/**
+ * Immutable private key (n, d), optionally with the CRT components used by the fast decryption.
+ * Safe to share between threads.
+ */
+public final class RSAPrivateKey {
+    private final BigInteger n, d;
+    //null when only (n, d) is known
+    private final BigInteger p, q, dP, dQ, qInv;
+    private final String fingerprint;
+    //built from the constants stored by a Keyring, null when they are built on demand:
+    //the context of n without the CRT components, the contexts of p and q with them
+    private final MontgomeryContext nContext, pContext, qContext;
+
+    public RSAPrivateKey(BigInteger n, BigInteger d) throws RSAException {
+        this(n, d, null, null, null, null, null);
+    }
+
+    public RSAPrivateKey(BigInteger n, BigInteger d,
+                         BigInteger p, BigInteger q, BigInteger dP, BigInteger dQ, BigInteger qInv)
+            throws RSAException {
+        this(n, d, p, q, dP, dQ, qInv, null, null, null);
+    }
+
+    RSAPrivateKey(BigInteger n, BigInteger d,
+                  BigInteger p, BigInteger q, BigInteger dP, BigInteger dQ, BigInteger qInv,
+                  MontgomeryContext nContext, MontgomeryContext pContext, MontgomeryContext qContext)
+            throws RSAException {
+        if (n == null)
+            throw new RSAException("Modulus is missing.");
+        else if (d == null)
+            throw new RSAException("Private exponent is missing.");
+        else if (!n.testBit(0) || n.compareTo(BigInteger.ONE) <= 0)
+            throw new RSAException("Modulus has to be odd and greater than one.");
+
+        this.n = n;
+        this.d = d;
+        //the CRT components are used all or none
+        boolean crt = p != null && q != null && dP != null && dQ != null && qInv != null;
+        if (crt)
+            checkCrtComponents(n, d, p, q, dP, dQ, qInv);
+        this.p = crt ? p : null;
+        this.q = crt ? q : null;
+        this.dP = crt ? dP : null;
+        this.dQ = crt ? dQ : null;
+        this.qInv = crt ? qInv : null;
+        //the same key with and without the CRT components decrypts at a different speed,
+        //so the two are kept apart in the precomputation cache
+        fingerprint = crt ?
+                KeyFingerprint.of("private-crt", n, d, p, q, dP, dQ, qInv) :
+                KeyFingerprint.of("private", n, d);
+        this.nContext = crt ? null : nContext;
+        this.pContext = crt ? pContext : null;
+        this.qContext = crt ? qContext : null;
+    }
+
+    private static void checkCrtComponents(BigInteger n, BigInteger d, BigInteger p, BigInteger q,
+                                           BigInteger dP, BigInteger dQ, BigInteger qInv) throws RSAException {
+        //a wrong component would make the CRT decryption return garbage instead of failing
+        if (p.compareTo(BigInteger.ONE) <= 0 || q.compareTo(BigInteger.ONE) <= 0 || !p.multiply(q).equals(n))
+            throw new RSAException("Primes p and q do not match the modulus.");
+        else if (!dP.equals(d.mod(p.subtract(BigInteger.ONE))) || !dQ.equals(d.mod(q.subtract(BigInteger.ONE))))
+            throw new RSAException("CRT exponents dP and dQ do not match the private exponent.");
+        else if (!qInv.multiply(q).mod(p).equals(BigInteger.ONE) || qInv.signum() < 0 || qInv.compareTo(p) >= 0)
+            throw new RSAException("CRT coefficient qInv is not the inverse of q mod p.");
+    }
+
+    public BigInteger getN() {
+        return n;
+    }
+
+    public BigInteger getD() {
+        return d;
+    }
+
+    public BigInteger getP() {
+        return p;
+    }
+
+    public BigInteger getQ() {
+        return q;
+    }
+
+    public BigInteger getDP() {
+        return dP;
+    }
+
+    public BigInteger getDQ() {
+        return dQ;
+    }
+
+    public BigInteger getQInv() {
+        return qInv;
+    }
+
+    public boolean hasCrtComponents() {
+        return p != null;
+    }
+
+    public int getKeySize() {
+        return n.bitLength();
+    }
+
+    public int getMaxChunkSize() {
+        return RSA.getMaxChunkSize(getKeySize());
+    }
+
+    public int getEncChunkSize() {
+        return RSA.getEncChunkSize(getKeySize());
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    UnaryOperator<BigInteger> newDecryption() {
+        if (!hasCrtComponents())
+            //m = c^d mod n
+            return (nContext != null ? nContext : new MontgomeryContext(n, d))::modPow;
+
+        //two half-size exponentiations recombined with Garner's formula
+        //m1 = c^dP mod p, m2 = c^dQ mod q, m = m2 + q * (qInv * (m1 - m2) mod p)
+        MontgomeryContext pContext = this.pContext != null ? this.pContext : new MontgomeryContext(p, dP);
+        MontgomeryContext qContext = this.qContext != null ? this.qContext : new MontgomeryContext(q, dQ);
+
+        return c -> {
+            BigInteger m1 = pContext.modPow(c.mod(p));
+            BigInteger m2 = qContext.modPow(c.mod(q));
+            BigInteger h = qInv.multiply(m1.subtract(m2)).mod(p);
+
+            return m2.add(h.multiply(q));
+        };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof RSAPrivateKey && ((RSAPrivateKey) o).fingerprint.equals(fingerprint);
+    }
+
+    @Override
+    public int hashCode() {
+        return fingerprint.hashCode();
+    }
+}
@@ -0,0 +1,73 @@
+package rsa;
+
+import exceptions.RSAException;
+
+import java.math.BigInteger;
+import java.util.function.UnaryOperator;
+
+/**
+ * Immutable public key (n, e), safe to share between threads.
+ */
+public final class RSAPublicKey {
+    private final BigInteger n, e;
+    private final String fingerprint;
+    //built from the constants stored by a Keyring, null when it is built on demand
+    private final MontgomeryContext context;
+
+    public RSAPublicKey(BigInteger n, BigInteger e) throws RSAException {
+        this(n, e, null);
+    }
+
+    RSAPublicKey(BigInteger n, BigInteger e, MontgomeryContext context) throws RSAException {
+        if (n == null)
+            throw new RSAException("Modulus is missing.");
+        else if (e == null)
+            throw new RSAException("Public exponent is missing.");
+        else if (!n.testBit(0) || n.compareTo(BigInteger.ONE) <= 0)
+            throw new RSAException("Modulus has to be odd and greater than one.");
+
+        this.n = n;
+        this.e = e;
+        fingerprint = KeyFingerprint.of("public", n, e);
+        this.context = context;
+    }
+
+    public BigInteger getN() {
+        return n;
+    }
+
+    public BigInteger getE() {
+        return e;
+    }
+
+    public int getKeySize() {
+        return n.bitLength();
+    }
+
+    public int getMaxChunkSize() {
+        return RSA.getMaxChunkSize(getKeySize());
+    }
+
+    public int getEncChunkSize() {
+        return RSA.getEncChunkSize(getKeySize());
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    UnaryOperator<BigInteger> newEncryption() {
+        //c = m^e mod n, the context is built once and used for every chunk
+        return (context != null ? context : new MontgomeryContext(n, e))::modPow;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof RSAPublicKey && ((RSAPublicKey) o).fingerprint.equals(fingerprint);
+    }
+
+    @Override
+    public int hashCode() {
+        return fingerprint.hashCode();
+    }
+}
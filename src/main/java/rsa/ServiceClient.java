@@ -0,0 +1,73 @@
+package rsa;
+
+import exceptions.RSAException;
+import exceptions.ServiceBusyException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Client of EncryptionService, a single connection sending one request after another.
+ * Not to be shared between threads.
+ */
+public class ServiceClient implements Closeable {
+    private final Socket socket;
+    private final DataInputStream input;
+    private final DataOutputStream output;
+
+    public ServiceClient(int port) throws IOException {
+        socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        socket.setTcpNoDelay(true);
+        input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    public byte[] encrypt(String fingerprint, byte[] plainText) throws RSAException, IOException {
+        return request(EncryptionService.OP_ENCRYPT, fingerprint, plainText);
+    }
+
+    public byte[] encryptPacked(String fingerprint, byte[] plainText) throws RSAException, IOException {
+        //the packed blocks of CipherHeader.FLAG_PACKED, e.g. for the files of the GUI
+        return request(EncryptionService.OP_ENCRYPT_PACKED, fingerprint, plainText);
+    }
+
+    public byte[] decrypt(String fingerprint, byte[] cypherText) throws RSAException, IOException {
+        //the fingerprint of the public key names the key pair
+        return request(EncryptionService.OP_DECRYPT, fingerprint, cypherText);
+    }
+
+    private byte[] request(int operation, String fingerprint, byte[] data) throws RSAException, IOException {
+        byte[] hash = KeyFingerprint.fromHex(fingerprint);
+        if (hash == null)
+            throw new RSAException("Wrong key fingerprint " + fingerprint + ".");
+
+        output.writeByte(operation);
+        output.write(hash);
+        output.writeInt(data.length);
+        output.write(data);
+        output.flush();
+
+        int status = input.readUnsignedByte();
+        byte[] response = new byte[input.readInt()];
+        input.readFully(response);
+
+        if (status == EncryptionService.STATUS_BUSY)
+            throw new ServiceBusyException(new String(response, StandardCharsets.UTF_8));
+        else if (status != EncryptionService.STATUS_OK)
+            throw new RSAException(new String(response, StandardCharsets.UTF_8));
+
+        return response;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -0,0 +1,193 @@
+package rsa;
+
+import exceptions.RSAException;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * The serve and load commands: runs EncryptionService over a keyring until the process is stopped,
+ * or runs LoadGenerator against a running service. Without a port, the load generator starts its own
+ * service with a new key, so it needs nothing but the loopback interface.
+ */
+class ServiceCommand {
+    private static final int DEFAULT_CLIENTS = 8;
+    private static final int DEFAULT_REQUEST_SIZE = 1024;
+    private static final int DEFAULT_SECONDS = 10;
+    private static final int DEFAULT_KEY_SIZE = 2048;
+    private static final String USAGE =
+            "usage: rsa serve -r <keyring> [-p <port>] [-t <threads>] [-c <connections>] [-q <queued blocks>]\n"
+                    + "                 [-w <queue wait in ms>]\n"
+                    + "       rsa load [-p <port> -f <fingerprint>] [-n <clients>] [-s <request size>] [-d <seconds>]\n"
+                    + "                [-b <key size>]\n"
+                    + "  -r  keyring holding the keys, the requests name them by the fingerprint of the public key\n"
+                    + "      (decryption takes the chunks and the packed blocks of encrypt, not the files of -a or -z)\n"
+                    + "  -p  loopback port, " + ServiceOptions.DEFAULT_PORT + " by default; load starts its own "
+                    + "service without it\n"
+                    + "  -t  threads computing the blocks, the number of processors by default\n"
+                    + "  -c  connections served at once, " + ServiceOptions.DEFAULT_MAX_CONNECTIONS + " by default\n"
+                    + "  -q  blocks queued at once, " + ServiceOptions.DEFAULT_MAX_QUEUED_BLOCKS + " by default\n"
+                    + "  -w  time a request waits for room in the queue before it is rejected as busy, "
+                    + ServiceOptions.DEFAULT_QUEUE_TIMEOUT_MILLIS + " ms by default\n"
+                    + "  -f  fingerprint of the key used by the load\n"
+                    + "  -n  clients sending requests at once, " + DEFAULT_CLIENTS + " by default\n"
+                    + "  -s  bytes encrypted by a request, " + DEFAULT_REQUEST_SIZE + " by default\n"
+                    + "  -d  duration of the load, " + DEFAULT_SECONDS + " s by default\n"
+                    + "  -b  size of the key generated for the own service, " + DEFAULT_KEY_SIZE + " bits by default";
+
+    private final PrintStream out;
+    private final PrintStream err;
+
+    private boolean serve;
+    private Path keyringPath;
+    private Integer port;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int maxConnections = ServiceOptions.DEFAULT_MAX_CONNECTIONS;
+    private int maxQueuedBlocks = ServiceOptions.DEFAULT_MAX_QUEUED_BLOCKS;
+    private int queueTimeoutMillis = ServiceOptions.DEFAULT_QUEUE_TIMEOUT_MILLIS;
+    private String fingerprint;
+    private int clients = DEFAULT_CLIENTS;
+    private int requestSize = DEFAULT_REQUEST_SIZE;
+    private int seconds = DEFAULT_SECONDS;
+    private int keySize = DEFAULT_KEY_SIZE;
+
+    ServiceCommand(PrintStream out, PrintStream err) {
+        this.out = out;
+        this.err = err;
+    }
+
+    static boolean handles(String[] args) {
+        return args.length > 0 && (args[0].equals("serve") || args[0].equals("load"));
+    }
+
+    static int run(String[] args) {
+        return new ServiceCommand(System.out, System.err).execute(args);
+    }
+
+    int execute(String[] args) {
+        try {
+            parse(args);
+        } catch (IllegalArgumentException ex) {
+            err.println(ex.getMessage());
+            err.println(USAGE);
+            return CommandLine.EXIT_USAGE;
+        }
+
+        try {
+            return serve ? serve() : load();
+        } catch (RSAException ex) {
+            err.println(ex.geteMessage());
+            return CommandLine.EXIT_USAGE;
+        } catch (IOException ex) {
+            err.println(ex.getMessage());
+            return CommandLine.EXIT_FAILURE;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return CommandLine.EXIT_FAILURE;
+        }
+    }
+
+    private void parse(String[] args) {
+        serve = args[0].equals("serve");
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "-r":
+                    keyringPath = Paths.get(CommandLine.value(args, ++i, arg));
+                    break;
+                case "-p":
+                    port = CommandLine.number(args, ++i, arg);
+                    break;
+                case "-t":
+                    threads = CommandLine.number(args, ++i, arg);
+                    break;
+                case "-c":
+                    maxConnections = CommandLine.number(args, ++i, arg);
+                    break;
+                case "-q":
+                    maxQueuedBlocks = CommandLine.number(args, ++i, arg);
+                    break;
+                case "-w":
+                    queueTimeoutMillis = CommandLine.number(args, ++i, arg);
+                    break;
+                case "-f":
+                    fingerprint = CommandLine.value(args, ++i, arg);
+                    break;
+                case "-n":
+                    clients = CommandLine.number(args, ++i, arg);
+                    break;
+                case "-s":
+                    requestSize = CommandLine.number(args, ++i, arg);
+                    break;
+                case "-d":
+                    seconds = CommandLine.number(args, ++i, arg);
+                    break;
+                case "-b":
+                    keySize = CommandLine.number(args, ++i, arg);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + arg + ".");
+            }
+        }
+
+        if (serve && keyringPath == null)
+            throw new IllegalArgumentException("Missing the keyring.");
+        else if (!serve && (port == null) != (fingerprint == null))
+            throw new IllegalArgumentException("The load needs both the port and the fingerprint, or neither.");
+    }
+
+    private ServiceOptions options(int port) throws RSAException {
+        return new ServiceOptions(port, threads, maxConnections, maxQueuedBlocks, queueTimeoutMillis);
+    }
+
+    private int serve() throws RSAException, IOException, InterruptedException {
+        Keyring keyring = Keyring.open(keyringPath);
+        EncryptionService service = new EncryptionService(keyring,
+                options(port == null ? ServiceOptions.DEFAULT_PORT : port));
+        service.start();
+
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                service.close();
+                keyring.close();
+            } catch (IOException ex) {
+                err.println(ex.getMessage());
+            }
+            stopped.countDown();
+        }));
+
+        out.printf("Serving %d keys on %s:%d%n", keyring.size(), InetAddress.getLoopbackAddress().getHostAddress(),
+                service.getPort());
+        stopped.await();
+        return CommandLine.EXIT_OK;
+    }
+
+    private int load() throws RSAException, IOException, InterruptedException {
+        if (port != null)
+            return new LoadGenerator(port, fingerprint, clients, requestSize, seconds).run(out) ?
+                    CommandLine.EXIT_OK : CommandLine.EXIT_FAILURE;
+
+        //an own service on a free port with a new key in a temporary keyring
+        Path path = Files.createTempFile("load", ".keyring");
+        Files.delete(path);
+        out.printf("Generating a %d bit key%n", keySize);
+        KeyPair keyPair = RSA.generateKeyPair(keySize);
+
+        try (Keyring keyring = Keyring.create(path, keySize, 1);
+             EncryptionService service = new EncryptionService(keyring, options(0))) {
+            keyring.add(keyPair);
+            service.start();
+
+            return new LoadGenerator(service.getPort(), keyPair.getPublicKey().getFingerprint(), clients,
+                    requestSize, seconds).run(out) ? CommandLine.EXIT_OK : CommandLine.EXIT_FAILURE;
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package rsa;
+
+import exceptions.RSAException;
+
+/**
+ * Immutable options of EncryptionService: the loopback port (0 picks a free one), the threads
+ * computing the blocks, the connections served at once, the blocks queued at once and how long
+ * a request waits for room in the queue before it is rejected as busy.
+ */
+public final class ServiceOptions {
+    public static final int DEFAULT_PORT = 7878;
+    public static final int DEFAULT_MAX_CONNECTIONS = 256;
+    public static final int DEFAULT_MAX_QUEUED_BLOCKS = 64 * 1024;
+    public static final int DEFAULT_QUEUE_TIMEOUT_MILLIS = 1000;
+
+    private final int port;
+    private final int threads;
+    private final int maxConnections;
+    private final int maxQueuedBlocks;
+    private final int queueTimeoutMillis;
+
+    public ServiceOptions(int port, int threads, int maxConnections, int maxQueuedBlocks, int queueTimeoutMillis)
+            throws RSAException {
+        if (port < 0 || port > 65535)
+            throw new RSAException("Wrong port " + port + ".");
+        else if (threads < 1)
+            throw new RSAException("Service needs at least one compute thread.");
+        else if (maxConnections < 1)
+            throw new RSAException("Service needs at least one connection.");
+        else if (maxQueuedBlocks < 1)
+            throw new RSAException("Service has to queue at least one block.");
+        else if (queueTimeoutMillis < 0)
+            throw new RSAException("Queue timeout cannot be negative.");
+
+        this.port = port;
+        this.threads = threads;
+        this.maxConnections = maxConnections;
+        this.maxQueuedBlocks = maxQueuedBlocks;
+        this.queueTimeoutMillis = queueTimeoutMillis;
+    }
+
+    public static ServiceOptions defaults() throws RSAException {
+        return new ServiceOptions(DEFAULT_PORT, Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_CONNECTIONS,
+                DEFAULT_MAX_QUEUED_BLOCKS, DEFAULT_QUEUE_TIMEOUT_MILLIS);
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public int getMaxQueuedBlocks() {
+        return maxQueuedBlocks;
+    }
+
+    public int getQueueTimeoutMillis() {
+        return queueTimeoutMillis;
+    }
+}
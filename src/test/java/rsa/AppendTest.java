@@ -0,0 +1,175 @@
+package rsa;
+
+import exceptions.CancelledException;
+import exceptions.RSAException;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static java.nio.file.StandardOpenOption.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * RSACipher.append onto new, byte-aligned and packed cypher text files, checked by decrypting
+ * the whole file.
+ */
+class AppendTest {
+    private static KeyPair keyPair;
+    private static CipherOptions chunked;
+    private static CipherOptions packed;
+
+    private final RSACipher cipher = new RSACipher();
+    private final Random random = new Random(21);
+
+    @TempDir
+    Path directory;
+
+    @BeforeAll
+    static void generateKeyPair() throws RSAException {
+        keyPair = RSA.generateKeyPair(256);
+        int maxChunkSize = keyPair.getPublicKey().getMaxChunkSize();
+        chunked = new CipherOptions(maxChunkSize, false, 2);
+        packed = new CipherOptions(maxChunkSize, false, 2, false, true);
+    }
+
+    @Test
+    void appendsToEmptyFile() throws Exception {
+        Path cypherText = directory.resolve("empty");
+        byte[] plainText = bytes(1000);
+
+        cipher.append(keyPair, chunked, channel(plainText), cypherText);
+        assertArrayEquals(plainText, decrypt(cypherText));
+
+        //an existing empty file as well
+        Path existing = Files.createFile(directory.resolve("existing"));
+        cipher.append(keyPair, packed, channel(plainText), existing);
+        assertArrayEquals(plainText, decrypt(existing));
+    }
+
+    @Test
+    void appendsAfterShortLastChunk() throws Exception {
+        //chunks of 10 bytes, the last one carries 3 of them
+        Path cypherText = directory.resolve("short");
+        byte[] first = bytes(1003);
+        try (FileChannel channel = FileChannel.open(cypherText, CREATE, WRITE)) {
+            cipher.encrypt(keyPair.getPublicKey(), new CipherOptions(10, false, 1), channel(first), channel);
+        }
+
+        byte[] second = bytes(777);
+        cipher.append(keyPair, chunked, channel(second), cypherText);
+        assertArrayEquals(concat(first, second), decrypt(cypherText));
+    }
+
+    @Test
+    void appendsManyTimes() throws Exception {
+        for (CipherOptions options : new CipherOptions[]{chunked, packed}) {
+            Path cypherText = directory.resolve("many" + options.isPacked());
+            ByteArrayOutputStream plainText = new ByteArrayOutputStream();
+
+            //empty appends, appends within one chunk and across the chunk and group boundaries
+            for (int i = 0; i < 60; i++) {
+                byte[] appended = bytes(i % 20 == 0 ? 0 : random.nextInt(i % 7 == 0 ? 3000 : 40));
+                plainText.write(appended);
+                cipher.append(keyPair, options, channel(appended), cypherText);
+            }
+
+            assertArrayEquals(plainText.toByteArray(), decrypt(cypherText));
+        }
+    }
+
+    @Test
+    void appendsToPackedFile() throws Exception {
+        //the layout of the file wins over the options of the append
+        Path cypherText = directory.resolve("packed");
+        byte[] first = bytes(4 * keyPair.getPublicKey().getKeySize() + 5);
+        try (FileChannel channel = FileChannel.open(cypherText, CREATE, WRITE)) {
+            cipher.encrypt(keyPair.getPublicKey(), packed, channel(first), channel);
+        }
+
+        byte[] second = bytes(300);
+        cipher.append(keyPair, chunked, channel(second), cypherText);
+        assertArrayEquals(concat(first, second), decrypt(cypherText));
+
+        try (DecryptingChannel channel = cipher.openDecryption(keyPair.getPrivateKey(), cypherText)) {
+            assertEquals(first.length + second.length, channel.size());
+        }
+    }
+
+    @Test
+    void cancelledAppendRestoresFile() throws Exception {
+        Path cypherText = directory.resolve("cancelled");
+        cipher.append(keyPair, packed, channel(bytes(500)), cypherText);
+        byte[] before = Files.readAllBytes(cypherText);
+
+        CipherProgress cancelled = new CipherProgress() {
+            @Override
+            public void update(long bytesRead, long chunks) {
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return true;
+            }
+        };
+        assertThrows(CancelledException.class,
+                () -> cipher.append(keyPair, packed, channel(bytes(100000)), cypherText, cancelled));
+        assertArrayEquals(before, Files.readAllBytes(cypherText));
+    }
+
+    @Test
+    void rejectsWrongKeysAndFormats() throws Exception {
+        Path cypherText = directory.resolve("rejected");
+        cipher.append(keyPair, chunked, channel(bytes(100)), cypherText);
+        byte[] before = Files.readAllBytes(cypherText);
+
+        KeyPair other = RSA.generateKeyPair(256);
+        assertThrows(RSAException.class, () -> cipher.append(
+                new KeyPair(keyPair.getPublicKey(), other.getPrivateKey()), chunked, channel(bytes(3)), cypherText));
+        assertThrows(RSAException.class, () -> cipher.append(other, chunked, channel(bytes(3)), cypherText));
+        assertThrows(RSAException.class, () -> cipher.append(keyPair,
+                new CipherOptions(31, false, 1, true), channel(bytes(3)), cypherText));
+        assertArrayEquals(before, Files.readAllBytes(cypherText));
+
+        //the legacy format has no header
+        Path legacy = directory.resolve("legacy");
+        Files.write(legacy, bytes(35));
+        assertThrows(RSAException.class, () -> cipher.append(keyPair, chunked, channel(bytes(3)), legacy));
+
+        //a byte-aligned file cut in the middle of a chunk
+        Path truncated = directory.resolve("truncated");
+        Files.write(truncated, Arrays.copyOf(before, before.length - 1));
+        assertThrows(RSAException.class, () -> cipher.append(keyPair, chunked, channel(bytes(3)), truncated));
+    }
+
+    private byte[] decrypt(Path cypherText) throws RSAException, IOException {
+        return cipher.decryptFile(keyPair.getPrivateKey(), chunked, Files.readAllBytes(cypherText)).toByteArray();
+    }
+
+    private byte[] bytes(int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] both = new byte[first.length + second.length];
+        System.arraycopy(first, 0, both, 0, first.length);
+        System.arraycopy(second, 0, both, first.length, second.length);
+        return both;
+    }
+
+    private static ReadableByteChannel channel(byte[] bytes) {
+        return Channels.newChannel(new ByteArrayInputStream(bytes));
+    }
+}
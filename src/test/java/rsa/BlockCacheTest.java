@@ -0,0 +1,200 @@
+package rsa;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * BlockCache filled past its budget with blocks whose hashes collide in the index, so the evictions
+ * delete from the middle of long probe sequences, and a cipher decrypting with the cache on.
+ */
+class BlockCacheTest {
+    private static final String OWNER = "owner";
+    //the index of a segment starts with 128 slots, the blocks below share a few homes across its end
+    private static final int INDEX_MASK = 127;
+    private static final int[] HOMES = {126, 127, 0};
+    private static final BigInteger MODULUS = BigInteger.ONE.shiftLeft(256).subtract(BigInteger.valueOf(189));
+    //a block, its result and the entry, see BlockCache.ENTRY_SIZE
+    private static final int ENTRY_BYTES = 40 + 2 * (56 + 32);
+    private static final int CAPACITY = 20;
+
+    private final Random random = new Random(22);
+
+    @Test
+    void evictsCollidingBlocksWithinBudget() {
+        BlockCache cache = new BlockCache(CAPACITY * ENTRY_BYTES);
+        assertEquals(1, cache.getSegmentCount());
+        AtomicInteger calls = new AtomicInteger();
+        UnaryOperator<BigInteger> cached = cache.wrap(OWNER, block -> {
+            calls.incrementAndGet();
+            return cube(block);
+        });
+
+        List<BigInteger> blocks = collidingBlocks(OWNER, 5 * CAPACITY);
+        for (BigInteger block : blocks) {
+            assertEquals(cube(block), cached.apply(block));
+            assertTrue(cache.getBytes() <= cache.getMaxBytes());
+        }
+
+        assertEquals(blocks.size(), calls.get());
+        assertEquals(blocks.size(), cache.getMisses());
+        assertEquals(0, cache.getHits());
+        assertEquals(CAPACITY, cache.size());
+        assertEquals(blocks.size() - CAPACITY, cache.getEvictions());
+
+        //every entry left is still found through the index, the evicted ones are not
+        assertEquals(cache.size(), contained(cache, blocks));
+
+        //a large entry evicts several ones, which leaves gaps in the probe sequences
+        BigInteger large = collidingBlocks(OWNER, 1).get(0);
+        cache.wrap(OWNER, block -> block.shiftLeft(8 * 4 * ENTRY_BYTES)).apply(large);
+        assertTrue(cache.contains(OWNER, large));
+        assertTrue(cache.size() < CAPACITY - 2);
+        assertTrue(cache.getBytes() <= cache.getMaxBytes());
+        int contained = contained(cache, blocks);
+        assertEquals(cache.size() - 1, contained);
+
+        calls.set(0);
+        for (BigInteger block : blocks) {
+            if (cache.contains(OWNER, block))
+                assertEquals(cube(block), cached.apply(block));
+        }
+        assertEquals(0, calls.get());
+        assertEquals(contained, cache.getHits());
+    }
+
+    private static int contained(BlockCache cache, List<BigInteger> blocks) {
+        int contained = 0;
+        for (BigInteger block : blocks)
+            if (cache.contains(OWNER, block))
+                contained++;
+
+        return contained;
+    }
+
+    @Test
+    void keepsReferencedBlocks() {
+        BlockCache cache = new BlockCache(CAPACITY * ENTRY_BYTES);
+        UnaryOperator<BigInteger> cached = cache.wrap(OWNER, BlockCacheTest::cube);
+        List<BigInteger> blocks = collidingBlocks(OWNER, 3 * CAPACITY);
+
+        //the first eviction clears the referenced bits of all the new entries, then a block read again
+        //after every new block is always referenced when the hand reaches it
+        for (BigInteger block : blocks.subList(0, CAPACITY + 1))
+            cached.apply(block);
+        BigInteger hot = blocks.get(CAPACITY);
+        for (BigInteger block : blocks.subList(CAPACITY + 1, blocks.size())) {
+            cached.apply(block);
+            assertTrue(cache.contains(OWNER, hot));
+            cached.apply(hot);
+        }
+        assertEquals(blocks.size() - CAPACITY - 1, cache.getHits());
+    }
+
+    @Test
+    void separatesOwners() {
+        //the encryption and the decryption of a key are cached under the public and the private fingerprint
+        BlockCache cache = new BlockCache(4 * CAPACITY * ENTRY_BYTES);
+        UnaryOperator<BigInteger> encryption = cache.wrap("public", BlockCacheTest::cube);
+        UnaryOperator<BigInteger> decryption = cache.wrap("private", block -> block.add(BigInteger.TWO));
+
+        List<BigInteger> blocks = collidingBlocks("public", CAPACITY);
+        for (int i = 0; i < 2; i++) {
+            for (BigInteger block : blocks) {
+                assertEquals(cube(block), encryption.apply(block));
+                assertEquals(block.add(BigInteger.TWO), decryption.apply(block));
+            }
+        }
+
+        assertEquals(2 * blocks.size(), cache.getMisses());
+        assertEquals(2 * blocks.size(), cache.getHits());
+        assertEquals(2 * blocks.size(), cache.size());
+    }
+
+    @Test
+    void skipsTrivialAndOversizedBlocks() {
+        BlockCache cache = new BlockCache(ENTRY_BYTES);
+        UnaryOperator<BigInteger> cached = cache.wrap(OWNER, block -> {
+            throw new AssertionError("computed " + block);
+        });
+
+        assertEquals(BigInteger.ZERO, cached.apply(BigInteger.ZERO));
+        assertEquals(BigInteger.ONE, cached.apply(BigInteger.ONE));
+        assertEquals(2, cache.getTrivialBlocks());
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getMisses());
+        assertEquals(1, cache.getHitRate());
+
+        //an entry larger than the whole budget is computed every time
+        UnaryOperator<BigInteger> large = cache.wrap(OWNER, block -> block.shiftLeft(1024));
+        large.apply(BigInteger.TEN);
+        large.apply(BigInteger.TEN);
+        assertEquals(0, cache.size());
+        assertEquals(2, cache.getMisses());
+        assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    void splitsLargeBudgetIntoSegments() {
+        BlockCache cache = new BlockCache(16L * 1024 * 1024);
+        assertEquals(16, cache.getSegmentCount());
+
+        UnaryOperator<BigInteger> cached = cache.wrap(OWNER, BlockCacheTest::cube);
+        List<BigInteger> blocks = new ArrayList<>();
+        for (int i = 0; i < 1000; i++)
+            blocks.add(new BigInteger(256, random).add(BigInteger.TWO));
+        for (int i = 0; i < 2; i++)
+            for (BigInteger block : blocks)
+                assertEquals(cube(block), cached.apply(block));
+
+        assertEquals(blocks.size(), cache.size());
+        assertEquals(blocks.size(), cache.getHits());
+        assertEquals(blocks.size() * (long) ENTRY_BYTES, cache.getBytes(), blocks.size() * 8.0);
+    }
+
+    @Test
+    void cipherDecryptsRepeatedBlocks() throws Exception {
+        //repeated records and zero padding, with the CRT decryption and without it
+        KeyPair keyPair = RSA.generateKeyPair(256);
+        RSAPrivateKey withoutCrt = new RSAPrivateKey(keyPair.getN(), keyPair.getD());
+        RSACipher cipher = new RSACipher(4, 64 * 1024);
+        CipherOptions options = new CipherOptions(keyPair.getPublicKey().getMaxChunkSize(), false, 2);
+
+        byte[] record = new byte[31 * 3];
+        random.nextBytes(record);
+        byte[] plainText = new byte[record.length * 50 + 31 * 20];
+        for (int i = 0; i < 50; i++)
+            System.arraycopy(record, 0, plainText, i * record.length, record.length);
+
+        byte[] cypherText = cipher.encryptFile(keyPair.getPublicKey(), options, plainText).toByteArray();
+        assertArrayEquals(plainText, cipher.decryptFile(keyPair.getPrivateKey(), options, cypherText).toByteArray());
+        assertArrayEquals(plainText, cipher.decryptFile(withoutCrt, options, cypherText).toByteArray());
+        assertTrue(cipher.getBlockCacheHits() > 0);
+        assertTrue(cipher.getBlockCacheTrivialBlocks() > 0);
+    }
+
+    private List<BigInteger> collidingBlocks(String owner, int count) {
+        //random blocks whose hashes have one of the HOMES in the index
+        long ownerHash = BlockCache.ownerHash(owner);
+        List<BigInteger> blocks = new ArrayList<>();
+        while (blocks.size() < count) {
+            BigInteger block = new BigInteger(255, random).add(BigInteger.TWO);
+            int home = (int) BlockCache.hash(ownerHash, block) & INDEX_MASK;
+            if (home == HOMES[blocks.size() % HOMES.length])
+                blocks.add(block);
+        }
+
+        return blocks;
+    }
+
+    private static BigInteger cube(BigInteger block) {
+        return block.modPow(BigInteger.valueOf(3), MODULUS);
+    }
+}
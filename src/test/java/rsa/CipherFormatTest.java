@@ -0,0 +1,149 @@
+package rsa;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HexFormat;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The cypher text formats: a file of the legacy format, written by the first version of RSA.java, and
+ * round trips of the packed blocks over the lengths at which the last group takes another block,
+ * through RSACipher and through EncryptionService.
+ */
+class CipherFormatTest {
+    //a 256 bit key of the text key files, (n, d) without the CRT components
+    private static final BigInteger N =
+            new BigInteger("97b275336dffdabd5efd3765912a13e38d2033fddbaaf33f9bb5e7c9432baf61", 16);
+    private static final BigInteger D =
+            new BigInteger("5ce4848132d5da02724b1ae43fab7c42d0f48c9bc7b45a235e65ddca22d8afe7", 16);
+    private static final String LEGACY_PLAIN_TEXT = "Written by the first version, in chunks.";
+    //33 byte chunks, the first one carries 8 bytes, the others 16, and the trailer [8, 16]
+    private static final String LEGACY_CYPHER_TEXT =
+            "005588faede96a25c3aee4ce0b794e5f0165d7660f70c76e79f93d0cf034a9fa03"
+                    + "0021b3136bb1b361ddb61a99a2d509d457c919e38744ae9bd1e5aa2afdc3bcd338"
+                    + "001a5f999729ce88000c88b72dbd3ba6a1f394c5dba3e480fa3e1a3465fee7ebc7"
+                    + "0810";
+    //the first 31 bytes of the plain text in a single chunk, the trailer [31, 31]
+    private static final String LEGACY_SINGLE_CHUNK =
+            "005e153950d4dea64325148be5b4998cf53a31f9093690d112de78897fbf2e6297"
+                    + "1f1f";
+
+    private final RSACipher cipher = new RSACipher();
+    private final Random random = new Random(23);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void decryptsLegacyFile() throws Exception {
+        RSAPrivateKey key = new RSAPrivateKey(N, D);
+        byte[] plainText = LEGACY_PLAIN_TEXT.getBytes(StandardCharsets.US_ASCII);
+        //the chunk size of the options is not used, the file carries its own
+        CipherOptions options = new CipherOptions(1, false, 2);
+
+        byte[] cypherText = HexFormat.of().parseHex(LEGACY_CYPHER_TEXT);
+        assertEquals(3 * RSACipher.LEGACY_ENC_CHUNK_SIZE + 2, cypherText.length);
+        assertArrayEquals(plainText, cipher.decryptFile(key, options, cypherText).toByteArray());
+        assertArrayEquals(plainText, decryptStream(key, options, cypherText));
+        assertArrayEquals(plainText, decryptMapped(key, options, cypherText));
+
+        byte[] singleChunk = HexFormat.of().parseHex(LEGACY_SINGLE_CHUNK);
+        assertArrayEquals(LEGACY_PLAIN_TEXT.substring(0, 31).getBytes(StandardCharsets.US_ASCII),
+                cipher.decryptFile(key, options, singleChunk).toByteArray());
+    }
+
+    @Test
+    void roundTripsPackedBlocks() throws Exception {
+        for (int keySize : new int[]{256, 1024, 2048}) {
+            KeyPair keyPair = RSA.generateKeyPair(keySize);
+            CipherOptions options = new CipherOptions(keyPair.getPublicKey().getMaxChunkSize(), false, 2, false, true);
+            PackedCodec codec = new PackedCodec(keySize);
+            int groupSize = codec.getGroupSize();
+
+            for (int length : boundaryLengths(groupSize)) {
+                byte[] plainText = new byte[length];
+                random.nextBytes(plainText);
+
+                byte[] cypherText = cipher.encryptFile(keyPair.getPublicKey(), options, plainText).toByteArray();
+                int expectedLength = CipherHeader.SIZE + length / groupSize * codec.getEncGroupSize()
+                        + codec.getEncLastGroupSize(length % groupSize);
+                assertEquals(expectedLength, cypherText.length, () -> keySize + " bits, " + length + " bytes");
+
+                assertArrayEquals(plainText, cipher.decryptFile(keyPair.getPrivateKey(), options, cypherText)
+                        .toByteArray(), () -> keySize + " bits, " + length + " bytes");
+                assertArrayEquals(plainText, decryptMapped(keyPair.getPrivateKey(), options, cypherText));
+            }
+        }
+    }
+
+    @Test
+    void serviceMatchesCipherPackedBlocks() throws Exception {
+        KeyPair keyPair = RSA.generateKeyPair(256);
+        String fingerprint = keyPair.getPublicKey().getFingerprint();
+        CipherOptions options = new CipherOptions(keyPair.getPublicKey().getMaxChunkSize(), false, 1, false, true);
+
+        try (Keyring keyring = Keyring.create(directory.resolve("keyring"), 256, 1)) {
+            keyring.add(keyPair);
+            try (EncryptionService service = new EncryptionService(keyring, new ServiceOptions(0, 2, 4, 10000, 1000))) {
+                service.start();
+                try (ServiceClient client = new ServiceClient(service.getPort())) {
+                    for (int length : boundaryLengths(new PackedCodec(256).getGroupSize())) {
+                        byte[] plainText = new byte[length];
+                        random.nextBytes(plainText);
+
+                        //the same cypher text both ways, the textbook exponentiation is deterministic
+                        byte[] cypherText = client.encryptPacked(fingerprint, plainText);
+                        assertArrayEquals(cipher.encryptFile(keyPair.getPublicKey(), options, plainText).toByteArray(),
+                                cypherText, () -> length + " bytes");
+                        assertArrayEquals(plainText, client.decrypt(fingerprint, cypherText));
+                    }
+                }
+            }
+        }
+    }
+
+    private static TreeSet<Integer> boundaryLengths(int groupSize) {
+        //around the full groups and the lengths at which the last group takes one more block:
+        //the remaining bytes and the marker byte fill k blocks of groupSize bits
+        TreeSet<Integer> lengths = new TreeSet<>();
+        for (int groups = 0; groups <= 2; groups++) {
+            for (int blocks = 0; blocks <= PackedCodec.GROUP_BLOCKS; blocks++) {
+                int remaining = blocks * groupSize / Byte.SIZE - 1;
+                for (int delta = -1; delta <= 1; delta++) {
+                    int length = groups * groupSize + remaining + delta;
+                    if (length >= 0)
+                        lengths.add(length);
+                }
+            }
+        }
+
+        return lengths;
+    }
+
+    private byte[] decryptStream(RSAPrivateKey key, CipherOptions options, byte[] cypherText) throws Exception {
+        ByteArrayOutputStream plainText = new ByteArrayOutputStream();
+        cipher.decrypt(key, options, Channels.newChannel(new ByteArrayInputStream(cypherText)),
+                Channels.newChannel(plainText));
+
+        return plainText.toByteArray();
+    }
+
+    private byte[] decryptMapped(RSAPrivateKey key, CipherOptions options, byte[] cypherText) throws Exception {
+        Path input = Files.write(directory.resolve("cypherText"), cypherText);
+        Path output = directory.resolve("plainText");
+        cipher.decrypt(key, options, input, output, CipherProgress.NONE);
+
+        return Files.readAllBytes(output);
+    }
+}
@@ -0,0 +1,178 @@
+package rsa;
+
+import exceptions.RSAException;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Keys added to a keyring, read back after reopening it and converted from and to the text key files.
+ */
+class KeyringTest {
+    private static KeyPair first;
+    private static KeyPair second;
+    private static KeyPair large;
+
+    private final RSACipher cipher = new RSACipher();
+
+    @TempDir
+    Path directory;
+
+    @BeforeAll
+    static void generateKeyPairs() throws RSAException {
+        first = RSA.generateKeyPair(256);
+        second = RSA.generateKeyPair(256);
+        large = RSA.generateKeyPair(1024);
+    }
+
+    @Test
+    void readsKeysAfterReopening() throws Exception {
+        Path path = directory.resolve("keyring");
+        try (Keyring keyring = Keyring.create(path, 1024, 4)) {
+            keyring.add(first);
+            keyring.add(second.getPublicKey());
+            keyring.add(large);
+        }
+
+        try (Keyring keyring = Keyring.open(path)) {
+            assertEquals(1024, keyring.getMaxKeySize());
+            assertEquals(4, keyring.getCapacity());
+            assertEquals(3, keyring.size());
+            assertEquals(List.of(fingerprint(first), fingerprint(second), fingerprint(large)),
+                    keyring.getFingerprints());
+
+            for (KeyPair keyPair : new KeyPair[]{first, large}) {
+                KeyPair read = keyring.get(fingerprint(keyPair));
+                assertEquals(keyPair.getPublicKey(), read.getPublicKey());
+                assertEquals(keyPair.getPrivateKey(), read.getPrivateKey());
+                assertTrue(read.getPrivateKey().hasCrtComponents());
+                assertRoundTrip(read);
+            }
+
+            //a public key only
+            assertEquals(second.getPublicKey(), keyring.getPublicKey(fingerprint(second)));
+            assertNull(keyring.getPrivateKey(fingerprint(second)));
+            assertNull(keyring.get(second.getPrivateKey().getFingerprint()));
+        }
+    }
+
+    @Test
+    void replacesKeyAddedAgain() throws Exception {
+        Path path = directory.resolve("replaced");
+        try (Keyring keyring = Keyring.create(path, 256, 2)) {
+            keyring.add(first.getPublicKey());
+            assertNull(keyring.getPrivateKey(fingerprint(first)));
+
+            //the public key gets its private key
+            keyring.add(first);
+            assertEquals(1, keyring.size());
+            assertEquals(first.getPrivateKey(), keyring.getPrivateKey(fingerprint(first)));
+        }
+
+        try (Keyring keyring = Keyring.open(path)) {
+            assertEquals(List.of(fingerprint(first)), keyring.getFingerprints());
+            assertRoundTrip(keyring.get(fingerprint(first)));
+        }
+    }
+
+    @Test
+    void rejectsKeysBeyondCapacity() throws Exception {
+        try (Keyring keyring = Keyring.create(directory.resolve("full"), 256, 2)) {
+            keyring.add(first);
+            keyring.add(second);
+            assertThrows(RSAException.class, () -> keyring.add(RSA.generateKeyPair(256)));
+            assertThrows(RSAException.class, () -> keyring.add(large));
+
+            //a key already held is still replaced
+            keyring.add(first.getPublicKey());
+            assertEquals(2, keyring.size());
+            assertNull(keyring.getPrivateKey(fingerprint(first)));
+        }
+
+        assertThrows(RSAException.class, () -> Keyring.create(directory.resolve("small"), 8, 1));
+        assertThrows(RSAException.class, () -> Keyring.create(directory.resolve("empty"), 256, 0));
+    }
+
+    @Test
+    void rejectsOtherFiles() throws Exception {
+        Path path = directory.resolve("other");
+        Files.write(path, new byte[100]);
+        assertThrows(RSAException.class, () -> Keyring.open(path));
+
+        Path truncated = directory.resolve("truncated");
+        try (Keyring keyring = Keyring.create(truncated, 256, 2)) {
+            keyring.add(first);
+        }
+        byte[] bytes = Files.readAllBytes(truncated);
+        Files.write(truncated, Arrays.copyOf(bytes, bytes.length - 1));
+        assertThrows(RSAException.class, () -> Keyring.open(truncated));
+    }
+
+    @Test
+    void convertsKeyFiles() throws Exception {
+        File written = Files.createDirectory(directory.resolve("written")).toFile();
+        File publicKeyFile = new File(written, KeyFiles.PUBLIC_KEY_FILE);
+        File privateKeyFile = new File(written, KeyFiles.PRIVATE_KEY_FILE);
+        KeyFiles.writePublicKey(publicKeyFile, first.getPublicKey());
+        KeyFiles.writePrivateKey(privateKeyFile, first.getPrivateKey());
+
+        //an older private key file holds only (n, d)
+        File legacy = Files.createDirectory(directory.resolve("legacy")).toFile();
+        File legacyPublicKeyFile = new File(legacy, KeyFiles.PUBLIC_KEY_FILE);
+        File legacyPrivateKeyFile = new File(legacy, KeyFiles.PRIVATE_KEY_FILE);
+        KeyFiles.writePublicKey(legacyPublicKeyFile, second.getPublicKey());
+        try (FileWriter output = new FileWriter(legacyPrivateKeyFile)) {
+            output.write(second.getPrivateKey().getN() + "\n" + second.getPrivateKey().getD());
+        }
+
+        File exported = Files.createDirectory(directory.resolve("exported")).toFile();
+        File exportedLegacy = Files.createDirectory(directory.resolve("exportedLegacy")).toFile();
+        try (Keyring keyring = Keyring.create(directory.resolve("files"), 256, 2)) {
+            assertEquals(fingerprint(first), keyring.importKeyFiles(publicKeyFile, privateKeyFile));
+            assertEquals(fingerprint(second), keyring.importKeyFiles(legacyPublicKeyFile, legacyPrivateKeyFile));
+
+            KeyPair read = keyring.get(fingerprint(second));
+            assertFalse(read.getPrivateKey().hasCrtComponents());
+            assertEquals(second.getPrivateKey().getD(), read.getPrivateKey().getD());
+            assertRoundTrip(read);
+
+            keyring.exportKeyFiles(fingerprint(first), exported);
+            keyring.exportKeyFiles(fingerprint(second), exportedLegacy);
+            assertThrows(RSAException.class, () -> keyring.exportKeyFiles(large.getPublicKey().getFingerprint(),
+                    exported));
+        }
+
+        //the files are written as the GUI writes them
+        assertFileEquals(publicKeyFile, new File(exported, KeyFiles.PUBLIC_KEY_FILE));
+        assertFileEquals(privateKeyFile, new File(exported, KeyFiles.PRIVATE_KEY_FILE));
+        assertFileEquals(legacyPublicKeyFile, new File(exportedLegacy, KeyFiles.PUBLIC_KEY_FILE));
+        assertFileEquals(legacyPrivateKeyFile, new File(exportedLegacy, KeyFiles.PRIVATE_KEY_FILE));
+    }
+
+    private void assertRoundTrip(KeyPair keyPair) throws Exception {
+        byte[] plainText = new byte[300];
+        new Random(18).nextBytes(plainText);
+        CipherOptions options = new CipherOptions(keyPair.getPublicKey().getMaxChunkSize(), false, 1);
+
+        byte[] cypherText = cipher.encryptFile(keyPair.getPublicKey(), options, plainText).toByteArray();
+        assertArrayEquals(plainText, cipher.decryptFile(keyPair.getPrivateKey(), options, cypherText).toByteArray());
+    }
+
+    private static void assertFileEquals(File expected, File actual) throws Exception {
+        assertArrayEquals(Files.readAllBytes(expected.toPath()), Files.readAllBytes(actual.toPath()), actual::getName);
+    }
+
+    private static String fingerprint(KeyPair keyPair) {
+        return keyPair.getPublicKey().getFingerprint();
+    }
+}
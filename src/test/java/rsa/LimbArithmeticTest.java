@@ -0,0 +1,183 @@
+package rsa;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Differential tests of the fixed-width Montgomery arithmetic, of MontgomeryContext.modPow and of
+ * the Jacobi symbol against BigInteger, over random odd moduli of 1 to MAX_LIMBS limbs.
+ */
+class LimbArithmeticTest {
+    private static final int MODULI_PER_LIMB_COUNT = 20;
+    private static final int VALUES_PER_MODULUS = 50;
+
+    private final Random random = new Random(20);
+
+    @Test
+    void multiplyAndSquareMatchBigInteger() {
+        for (BigInteger modulus : moduli(LimbArithmetic.MAX_LIMBS)) {
+            LimbArithmetic arithmetic = new LimbArithmetic(modulus);
+            int limbs = arithmetic.getLimbs();
+            BigInteger rInverse = BigInteger.ONE.shiftLeft(Long.SIZE * limbs).modInverse(modulus);
+            long[] scratch = arithmetic.newScratch();
+            long[] result = arithmetic.newNumber();
+
+            List<BigInteger> values = values(modulus);
+            for (int i = 0; i < values.size(); i++) {
+                BigInteger a = values.get(i);
+                BigInteger b = values.get(values.size() - 1 - i);
+                long[] aLimbs = LimbArithmetic.toLimbs(a, limbs);
+                long[] bLimbs = LimbArithmetic.toLimbs(b, limbs);
+
+                //a * b * R^-1 mod modulus
+                arithmetic.multiply(aLimbs, bLimbs, result, scratch);
+                assertEquals(a.multiply(b).multiply(rInverse).mod(modulus), LimbArithmetic.toBigInteger(result),
+                        () -> "multiply " + a + " " + b + " mod " + modulus);
+
+                //a^2 * R^-1 mod modulus, squared by the REDC of the double-width square
+                arithmetic.square(aLimbs, result, scratch);
+                assertEquals(a.multiply(a).multiply(rInverse).mod(modulus), LimbArithmetic.toBigInteger(result),
+                        () -> "square " + a + " mod " + modulus);
+
+                //the result may be an operand
+                long[] inPlace = aLimbs.clone();
+                arithmetic.multiply(inPlace, bLimbs, inPlace, scratch);
+                assertEquals(a.multiply(b).multiply(rInverse).mod(modulus), LimbArithmetic.toBigInteger(inPlace));
+            }
+        }
+    }
+
+    @Test
+    void montgomeryFormRoundTrips() {
+        for (BigInteger modulus : moduli(LimbArithmetic.MAX_LIMBS)) {
+            LimbArithmetic arithmetic = new LimbArithmetic(modulus);
+            int limbs = arithmetic.getLimbs();
+            BigInteger r = BigInteger.ONE.shiftLeft(Long.SIZE * limbs);
+            long[] scratch = arithmetic.newScratch();
+            long[] mont = arithmetic.newNumber();
+            long[] back = arithmetic.newNumber();
+
+            for (BigInteger x : values(modulus)) {
+                arithmetic.toMontgomery(LimbArithmetic.toLimbs(x, limbs), mont, scratch);
+                assertEquals(x.multiply(r).mod(modulus), LimbArithmetic.toBigInteger(mont));
+
+                //the REDC of x alone
+                arithmetic.fromMontgomery(mont, back, scratch);
+                assertEquals(x, LimbArithmetic.toBigInteger(back));
+            }
+        }
+    }
+
+    @Test
+    void derivedConstantsMatchComputedOnes() {
+        //the constants of a MontgomeryContext, R = 2^bitLength, converted to R = 2^(64 * limbs)
+        for (BigInteger modulus : moduli(LimbArithmetic.MAX_LIMBS)) {
+            MontgomeryContext context = new MontgomeryContext(modulus, BigInteger.ONE);
+            LimbArithmetic computed = new LimbArithmetic(modulus);
+            LimbArithmetic derived = new LimbArithmetic(modulus, modulus.bitLength(), context.getNPrime(),
+                    context.getRSquared());
+
+            assertEquals(computed.getNPrime(), derived.getNPrime(), () -> "nPrime of " + modulus);
+            assertArrayEquals(computed.getRSquared(), derived.getRSquared(), () -> "R^2 of " + modulus);
+        }
+    }
+
+    @Test
+    void modPowMatchesBigInteger() {
+        //the moduli of more than MAX_LIMBS limbs take the BigInteger path
+        for (BigInteger modulus : moduli(LimbArithmetic.MAX_LIMBS + 2)) {
+            List<BigInteger> exponents = new ArrayList<>(List.of(BigInteger.ZERO, BigInteger.ONE, BigInteger.TWO,
+                    BigInteger.valueOf(65537), modulus.subtract(BigInteger.ONE)));
+            exponents.add(new BigInteger(modulus.bitLength(), random));
+
+            for (BigInteger exponent : exponents) {
+                MontgomeryContext context = new MontgomeryContext(modulus, exponent);
+                //with the constants given, like a Keyring does
+                MontgomeryContext stored = new MontgomeryContext(modulus, exponent, context.getNPrime(),
+                        context.getRSquared());
+
+                for (BigInteger base : values(modulus)) {
+                    BigInteger expected = base.modPow(exponent, modulus);
+                    assertEquals(expected, context.modPow(base),
+                            () -> base + "^" + exponent + " mod " + modulus);
+                    assertEquals(expected, stored.modPow(base));
+                }
+            }
+        }
+    }
+
+    @Test
+    void modPowReducesTheBase() {
+        BigInteger modulus = BigInteger.probablePrime(200, random);
+        BigInteger exponent = BigInteger.valueOf(65537);
+        MontgomeryContext context = new MontgomeryContext(modulus, exponent);
+
+        for (BigInteger base : new BigInteger[]{modulus, modulus.add(BigInteger.TEN), BigInteger.valueOf(-3)})
+            assertEquals(base.modPow(exponent, modulus), context.modPow(base));
+    }
+
+    @Test
+    void jacobiMatchesEulersCriterion() {
+        //(a/n) is the product of (a/p) over the prime factors p of n, and (a/p) = a^((p-1)/2) mod p
+        for (int limbs = 1; limbs <= LimbArithmetic.MAX_LIMBS + 1; limbs++) {
+            for (int i = 0; i < MODULI_PER_LIMB_COUNT; i++) {
+                //an odd prime, a product of two or a prime squared
+                int bits = Long.SIZE * limbs - random.nextInt(Long.SIZE / 2);
+                BigInteger p = BigInteger.probablePrime(i % 3 == 0 ? bits : bits / 2, random);
+                BigInteger q = i % 3 == 0 ? BigInteger.ONE :
+                        i % 3 == 1 ? BigInteger.probablePrime(bits / 2, random) : p;
+                BigInteger n = p.multiply(q);
+
+                for (BigInteger a : values(n)) {
+                    int expected = euler(a, p) * (q.equals(BigInteger.ONE) ? 1 : euler(a, q));
+                    assertEquals(expected, PrimeGenerator.jacobi(a, n), () -> "(" + a + "/" + n + ")");
+                }
+                //a multiple of a factor
+                assertEquals(0, PrimeGenerator.jacobi(p.multiply(BigInteger.TEN), n));
+            }
+        }
+    }
+
+    private static int euler(BigInteger a, BigInteger p) {
+        BigInteger result = a.modPow(p.shiftRight(1), p);
+        return result.signum() == 0 ? 0 : result.equals(BigInteger.ONE) ? 1 : -1;
+    }
+
+    private List<BigInteger> moduli(int maxLimbs) {
+        //odd moduli of every limb count, filling their top limb partially or fully
+        List<BigInteger> moduli = new ArrayList<>();
+        for (int limbs = 1; limbs <= maxLimbs; limbs++) {
+            for (int i = 0; i < MODULI_PER_LIMB_COUNT; i++) {
+                int bits = i % 2 == 0 ? Long.SIZE * limbs : Long.SIZE * (limbs - 1) + 2 + random.nextInt(Long.SIZE - 1);
+                BigInteger modulus = new BigInteger(bits, random).setBit(bits - 1).setBit(0);
+                moduli.add(modulus);
+            }
+            //all ones, the largest modulus of the limbs
+            moduli.add(BigInteger.ONE.shiftLeft(Long.SIZE * limbs).subtract(BigInteger.ONE));
+        }
+        moduli.add(BigInteger.valueOf(3));
+
+        return moduli;
+    }
+
+    private List<BigInteger> values(BigInteger modulus) {
+        //the edge values and random ones below the modulus
+        List<BigInteger> values = new ArrayList<>(List.of(BigInteger.ZERO, BigInteger.ONE,
+                modulus.subtract(BigInteger.ONE), modulus.subtract(BigInteger.TWO).max(BigInteger.ZERO)));
+        for (int i = 0; i < VALUES_PER_MODULUS; i++) {
+            BigInteger value;
+            do {
+                value = new BigInteger(modulus.bitLength(), random);
+            } while (value.compareTo(modulus) >= 0);
+            values.add(value);
+        }
+
+        return values;
+    }
+}